@@ -0,0 +1,136 @@
+package team.tangible.app.services;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreSettings;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import team.tangible.app.BuildConfig;
+import team.tangible.app.services.data.DocumentCache;
+import team.tangible.app.services.models.DataRecord;
+import team.tangible.app.services.models.RoomDocument;
+import team.tangible.app.services.models.User;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the room resolution against the local Firestore emulator. Start it with
+ * {@code firebase emulators:start --only firestore} and run the tests with
+ * {@code -PfirestoreEmulatorHost=10.0.2.2:8080}, otherwise they are skipped.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TangibleDataServiceEmulatorTest {
+    private static final String USER_UID = "emulator-test-user";
+    private static final String ROOM_ID = "emulator-test-room";
+    private static final String JITSI_ROOM = "emulator-test-jitsi-room";
+    private static final long TIMEOUT_MS = 10000;
+
+    private static FirebaseFirestore sFirebaseFirestore;
+
+    private SharedPreferences mSharedPreferences;
+
+    @BeforeClass
+    public static void connectToEmulator() {
+        Assume.assumeFalse("No Firestore emulator configured", BuildConfig.FIRESTORE_EMULATOR_HOST.isEmpty());
+
+        // The app's Dagger graph applies the same settings, but is not used by these tests
+        sFirebaseFirestore = FirebaseFirestore.getInstance();
+        sFirebaseFirestore.setFirestoreSettings(new FirebaseFirestoreSettings.Builder()
+                .setHost(BuildConfig.FIRESTORE_EMULATOR_HOST)
+                .setSslEnabled(false)
+                .setPersistenceEnabled(false)
+                .build());
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mSharedPreferences = context.getSharedPreferences("emulator-test-document-cache", Context.MODE_PRIVATE);
+        mSharedPreferences.edit().clear().commit();
+
+        Map<String, Object> room = new HashMap<>();
+        room.put("jitsiRoom", JITSI_ROOM);
+        Tasks.await(sFirebaseFirestore.collection("rooms").document(ROOM_ID).set(room), TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void denormalizedJitsiRoom_resolvesInOneRead() throws Exception {
+        writeUser(JITSI_ROOM);
+
+        DataRecord<RoomDocument> room = createService(true).observeCurrentUserRoom()
+                .timeout(TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .blockingFirst();
+
+        assertEquals(ROOM_ID, room.getId());
+        assertEquals(JITSI_ROOM, room.getData().getJitsiRoom());
+    }
+
+    @Test
+    public void staleDenormalizedJitsiRoom_fallsBackToRoomAndIsRepaired() throws Exception {
+        writeUser("stale-jitsi-room");
+
+        List<DataRecord<RoomDocument>> rooms = createService(true).observeCurrentUserRoom()
+                .take(2)
+                .timeout(TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .toList()
+                .blockingGet();
+
+        assertEquals("stale-jitsi-room", rooms.get(0).getData().getJitsiRoom());
+        assertEquals(JITSI_ROOM, rooms.get(1).getData().getJitsiRoom());
+
+        long deadlineMs = System.currentTimeMillis() + TIMEOUT_MS;
+        String repairedJitsiRoom = null;
+        while (!JITSI_ROOM.equals(repairedJitsiRoom) && System.currentTimeMillis() < deadlineMs) {
+            Thread.sleep(100);
+            repairedJitsiRoom = Tasks.await(sFirebaseFirestore.collection("users").document(USER_UID).get(),
+                    TIMEOUT_MS, TimeUnit.MILLISECONDS).getString("jitsiRoom");
+        }
+        assertEquals(JITSI_ROOM, repairedJitsiRoom);
+    }
+
+    @Test
+    public void twoHopResolution_readsTheRoom() throws Exception {
+        writeUser(null);
+
+        DataRecord<RoomDocument> room = createService(false).observeCurrentUserRoom()
+                .timeout(TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .blockingFirst();
+
+        assertEquals(JITSI_ROOM, room.getData().getJitsiRoom());
+    }
+
+    private void writeUser(String denormalizedJitsiRoom) throws Exception {
+        Map<String, Object> user = new HashMap<>();
+        user.put("room", sFirebaseFirestore.collection("rooms").document(ROOM_ID));
+        user.put("jitsiRoom", denormalizedJitsiRoom);
+        Tasks.await(sFirebaseFirestore.collection("users").document(USER_UID).set(user), TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private TangibleDataService createService(boolean isDenormalizedRoomResolutionEnabled) {
+        AuthenticationService authenticationService = new AuthenticationService(null) {
+            @Override
+            public User getUser() {
+                return new User(USER_UID, USER_UID);
+            }
+        };
+
+        return new TangibleDataService(() -> sFirebaseFirestore, authenticationService,
+                new DocumentCache(mSharedPreferences, TimeUnit.DAYS.toMillis(1)), isDenormalizedRoomResolutionEnabled);
+    }
+}
@@ -0,0 +1,15 @@
+package team.tangible.app;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+import javax.inject.Scope;
+
+/**
+ * Objects annotated with this scope live as long as the activity they were injected into. Use it
+ * for anything that holds on to an activity (listeners, display metrics, views) so that it is
+ * neither shared between activities nor re-created for every injected field.
+ */
+@Scope
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ActivityScope {}
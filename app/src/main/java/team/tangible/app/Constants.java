@@ -20,6 +20,17 @@ public class Constants {
 
     public static class BluetoothLowEnergy {
 
+        /**
+         * How long the shared connection to the Tangible stays up after the last screen using it
+         * goes away, so that coming back to the app does not require reconnecting
+         */
+        public static final long CONNECTION_GRACE_PERIOD_MS = 30000;
+
+        /**
+         * How many sequenced frames may await an ack at once when reliable delivery is on
+         */
+        public static final int RELIABLE_DELIVERY_WINDOW_SIZE = 8;
+
         /**
          * https://developer.nordicsemi.com/nRF_Connect_SDK/doc/latest/nrf/include/bluetooth/services/nus.html
          */
@@ -41,10 +52,30 @@ public class Constants {
         }
     }
 
+    public static class Pairing {
+        /**
+         * Whether to offer pairing with the top candidate without waiting for the user to find it
+         * in the list, once it is unambiguously the Tangible
+         */
+        public static final boolean SUGGEST_CLEAR_WINNER_PAIRING = true;
+    }
+
     public static class SharedPreferences {
         public static final String TEAM_TANGIBLE_APP = "team.tangible.app";
         public static class Keys {
             public static final String PAIRED_BLE_DEVICE_MAC_ADDRESS = "PAIRED_BLE_DEVICE_MAC_ADDRESS";
+            public static final String LAST_SEEN_BLE_DEVICE_MAC_ADDRESS = "LAST_SEEN_BLE_DEVICE_MAC_ADDRESS";
+            public static final String LAST_SEEN_BLE_DEVICE_TIMESTAMP_MS = "LAST_SEEN_BLE_DEVICE_TIMESTAMP_MS";
+            public static final String RELIABLE_DELIVERY_ENABLED = "RELIABLE_DELIVERY_ENABLED";
+            public static final String PROTOCOL_VERSION_OVERRIDE = "PROTOCOL_VERSION_OVERRIDE";
+            public static final String INTERACTION_RECORDING_ENABLED = "INTERACTION_RECORDING_ENABLED";
+            public static final String DOCUMENT_CACHE_SCHEMA_VERSION = "DOCUMENT_CACHE_SCHEMA_VERSION";
+            public static final String CACHED_USER_DOCUMENT_ID = "CACHED_USER_DOCUMENT_ID";
+            public static final String CACHED_USER_DOCUMENT_ROOM_ID = "CACHED_USER_DOCUMENT_ROOM_ID";
+            public static final String CACHED_USER_DOCUMENT_TIMESTAMP_MS = "CACHED_USER_DOCUMENT_TIMESTAMP_MS";
+            public static final String CACHED_ROOM_DOCUMENT_ID = "CACHED_ROOM_DOCUMENT_ID";
+            public static final String CACHED_ROOM_DOCUMENT_JITSI_ROOM = "CACHED_ROOM_DOCUMENT_JITSI_ROOM";
+            public static final String CACHED_ROOM_DOCUMENT_TIMESTAMP_MS = "CACHED_ROOM_DOCUMENT_TIMESTAMP_MS";
         }
     }
 
@@ -57,6 +88,98 @@ public class Constants {
                     .setAvailableProviders(PROVIDERS)
                     .build();
         }
+
+        public static class Firestore {
+            /**
+             * How long a cached user or room document may stand in for Firestore at startup
+             */
+            public static final long DOCUMENT_CACHE_TTL_MS = 7L * 24 * 60 * 60 * 1000;
+
+            /**
+             * How long a snapshot listener stays registered after its last subscriber goes away,
+             * so moving between screens does not re-register it
+             */
+            public static final long LISTENER_GRACE_PERIOD_MS = 30000;
+
+            /**
+             * How many recently read documents of each type are kept in memory
+             */
+            public static final int DOCUMENT_READ_CACHE_SIZE = 16;
+
+            /**
+             * Whether to start calls from the jitsiRoom copied onto the user document, rather than
+             * waiting for the room document it references. Only turn this on once the server keeps
+             * the copy up to date, the app never writes it.
+             */
+            public static final boolean DENORMALIZED_ROOM_RESOLUTION_ENABLED = false;
+        }
+    }
+
+    public static class Jitsi {
+        /**
+         * Value of BuildConfig.CONFERENCE_QUALITY_PROFILE that lets the quality governor choose
+         */
+        public static final String AUTOMATIC_QUALITY_PROFILE = "AUTO";
+
+        /**
+         * Where the conference quality governor steps down. Each measurement maps to a profile on
+         * its own and the cheapest of them is used.
+         */
+        public static class QualityThresholds {
+            public static final float LOW_RES_DROPPED_FRAME_RATIO = 0.10f;
+            public static final float AUDIO_ONLY_DROPPED_FRAME_RATIO = 0.25f;
+
+            public static final double LOW_RES_BLE_WRITE_P95_MS = 60;
+            public static final double AUDIO_ONLY_BLE_WRITE_P95_MS = 150;
+
+            /**
+             * Fewer BLE writes than this in an evaluation window are not enough to judge the
+             * latency by
+             */
+            public static final long MIN_BLE_WRITE_SAMPLES = 20;
+        }
+    }
+
+    public static class Stroke {
+        /**
+         * How often a stroke is sampled, and so the most often a stroke frame is sent
+         */
+        public static final long SAMPLE_INTERVAL_MS = 20;
+
+        /**
+         * A stroke this fast is felt at full intensity
+         */
+        public static final int FULL_INTENSITY_SPEED_DP_PER_S = 1500;
+    }
+
+    public static class MultiTouch {
+        /**
+         * How long the set of fingers down must hold still before it is sent
+         */
+        public static final long SETTLE_MS = 40;
+    }
+
+    public static class Touch {
+        /**
+         * Moves closer together than this are skipped by everything but the gesture detector, so
+         * fast touch screens do not multiply the work, or the frames, per display frame
+         */
+        public static final long MOVE_THROTTLE_MS = 16;
+
+        /**
+         * How long a finger must rest in one zone before its long press is started on the
+         * Tangible, about three display frames
+         */
+        public static final long PRESS_STABLE_MS = 50;
+    }
+
+    public static class Emoji {
+        public static final int ANIMATION_SIZE_DP = 160;
+
+        /**
+         * How long a still emoji stays up where there is no animation to play
+         */
+        public static final long STILL_DISPLAY_DURATION_MS = 1500;
     }
 
     public static class Toast {
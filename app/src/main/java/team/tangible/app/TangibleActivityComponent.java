@@ -0,0 +1,19 @@
+package team.tangible.app;
+
+import dagger.Subcomponent;
+import team.tangible.app.activities.HomescreenActivity;
+import team.tangible.app.activities.PairingActivity;
+import team.tangible.app.activities.SplashActivity;
+
+/**
+ * A child of {@link TangibleApplicationComponent} that lives as long as a single activity. It can
+ * use everything the application component provides, plus the @ActivityScope objects from
+ * {@link TangibleActivityModule}. Create a new one in each activity's onCreate.
+ */
+@ActivityScope
+@Subcomponent(modules = { TangibleActivityModule.class })
+public interface TangibleActivityComponent {
+    void inject(SplashActivity splashActivity);
+    void inject(PairingActivity pairingActivity);
+    void inject(HomescreenActivity homescreenActivity);
+}
@@ -0,0 +1,108 @@
+package team.tangible.app;
+
+import android.app.Activity;
+import android.os.Handler;
+import android.view.ViewConfiguration;
+
+import javax.inject.Named;
+
+import dagger.Module;
+import dagger.Provides;
+import team.tangible.app.services.EmojiService;
+import team.tangible.app.services.SocialTouchInteractionService;
+import team.tangible.app.services.TangibleBleConnectionService;
+import team.tangible.app.services.ble.TangibleFrameCodec;
+import team.tangible.app.services.touch.MultiTouchTracker;
+import team.tangible.app.services.touch.PredictivePressDispatcher;
+import team.tangible.app.services.touch.StrokeGestureEngine;
+import team.tangible.app.services.touch.TouchEventThrottle;
+import team.tangible.app.utils.ActivityUtils;
+import team.tangible.app.utils.InteractionLatencyTracer;
+import team.tangible.app.utils.StartupTrace;
+
+/**
+ * The activity-scoped half of the object graph. Everything provided here is created once per
+ * activity instance, while everything in {@link TangibleApplicationModule} is shared by the whole
+ * application.
+ */
+@Module
+public class TangibleActivityModule {
+    private final Activity mActivity;
+
+    public TangibleActivityModule(Activity activity) {
+        mActivity = activity;
+    }
+
+    @Provides
+    @ActivityScope
+    public Activity provideActivity() {
+        return mActivity;
+    }
+
+    @Provides
+    @ActivityScope
+    public SocialTouchInteractionService provideSocialTouchInteractionService(Activity activity, InteractionLatencyTracer latencyTracer) {
+        return StartupTrace.recordInstance(new SocialTouchInteractionService(activity, latencyTracer));
+    }
+
+    @Provides
+    @ActivityScope
+    public StrokeGestureEngine provideStrokeGestureEngine(Activity activity,
+                                                          SocialTouchInteractionService socialTouchInteractionService,
+                                                          TangibleBleConnectionService tangibleBleConnectionService,
+                                                          @Named(Constants.Threading.MAIN_THREAD) Handler mainThreadHandler) {
+        return StartupTrace.recordInstance(new StrokeGestureEngine(
+                socialTouchInteractionService.getInteractionZoneTable(),
+                mainThreadHandler,
+                () -> isV2FirmwareConnected(tangibleBleConnectionService),
+                ViewConfiguration.get(activity).getScaledTouchSlop(),
+                ActivityUtils.dpToPx(activity, Constants.Stroke.FULL_INTENSITY_SPEED_DP_PER_S),
+                Constants.Stroke.SAMPLE_INTERVAL_MS));
+    }
+
+    @Provides
+    @ActivityScope
+    public MultiTouchTracker provideMultiTouchTracker(SocialTouchInteractionService socialTouchInteractionService,
+                                                      TangibleBleConnectionService tangibleBleConnectionService,
+                                                      @Named(Constants.Threading.MAIN_THREAD) Handler mainThreadHandler) {
+        return StartupTrace.recordInstance(new MultiTouchTracker(
+                socialTouchInteractionService.getInteractionZoneTable(),
+                mainThreadHandler,
+                () -> isV2FirmwareConnected(tangibleBleConnectionService),
+                Constants.MultiTouch.SETTLE_MS));
+    }
+
+    @Provides
+    @ActivityScope
+    public PredictivePressDispatcher providePredictivePressDispatcher(Activity activity,
+                                                                      SocialTouchInteractionService socialTouchInteractionService,
+                                                                      TangibleBleConnectionService tangibleBleConnectionService,
+                                                                      @Named(Constants.Threading.MAIN_THREAD) Handler mainThreadHandler) {
+        return StartupTrace.recordInstance(new PredictivePressDispatcher(
+                socialTouchInteractionService.getInteractionZoneTable(),
+                mainThreadHandler,
+                () -> isV2FirmwareConnected(tangibleBleConnectionService),
+                ViewConfiguration.get(activity).getScaledTouchSlop(),
+                Constants.Touch.PRESS_STABLE_MS));
+    }
+
+    @Provides
+    @ActivityScope
+    public TouchEventThrottle provideTouchEventThrottle() {
+        return StartupTrace.recordInstance(new TouchEventThrottle(Constants.Touch.MOVE_THROTTLE_MS));
+    }
+
+    @Provides
+    @ActivityScope
+    public EmojiService provideEmojiService(Activity activity) {
+        return StartupTrace.recordInstance(new EmojiService(activity));
+    }
+
+    /**
+     * Stroke, multi-touch and press frames came with the v2 firmware, older firmware only knows
+     * the fixed gesture frames
+     */
+    private static boolean isV2FirmwareConnected(TangibleBleConnectionService tangibleBleConnectionService) {
+        return tangibleBleConnectionService.getProtocolVersion() >= TangibleFrameCodec.VERSION_2;
+    }
+}
@@ -9,9 +9,6 @@ import javax.inject.Singleton;
 
 import dagger.BindsInstance;
 import dagger.Component;
-import team.tangible.app.activities.HomescreenActivity;
-import team.tangible.app.activities.PairingActivity;
-import team.tangible.app.activities.SplashActivity;
 import team.tangible.app.services.AuthenticationService;
 
 /**
@@ -23,11 +20,14 @@ import team.tangible.app.services.AuthenticationService;
 @Component(modules = { TangibleApplicationModule.class })
 public interface TangibleApplicationComponent {
 
-    // This tells Dagger that LoginActivity requests injection so the graph needs to
-    // satisfy all the dependencies of the fields that LoginActivity is injecting.
-    void inject(SplashActivity splashActivity);
-    void inject(PairingActivity pairingActivity);
-    void inject(HomescreenActivity homescreenActivity);
+    /**
+     * Activities inject themselves through a child component so that they can also receive
+     * @ActivityScope objects. Create one per activity instance:
+     * <code>
+     *     getApplicationComponent().activityComponent(new TangibleActivityModule(this)).inject(this);
+     * </code>
+     */
+    TangibleActivityComponent activityComponent(TangibleActivityModule activityModule);
 
     /**
      * This is a custom builder that provides the Context object used as dependencies in the
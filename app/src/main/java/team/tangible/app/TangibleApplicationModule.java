@@ -7,18 +7,32 @@ import android.os.Handler;
 
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreSettings;
 import com.polidea.rxandroidble2.RxBleClient;
 
 import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
 
 import dagger.Module;
 import dagger.Provides;
+import io.reactivex.schedulers.Schedulers;
 import team.tangible.app.Constants;
 import team.tangible.app.services.AuthenticationService;
-import team.tangible.app.services.EmojiService;
-import team.tangible.app.services.SocialTouchInteractionService;
+import team.tangible.app.services.ConferenceService;
+import team.tangible.app.services.TangibleConnectionManager;
 import team.tangible.app.services.TangibleBleConnectionService;
 import team.tangible.app.services.TangibleDataService;
+import team.tangible.app.services.conference.ConferenceQualityGovernor;
+import team.tangible.app.services.conference.ConferenceQualityProfile;
+import team.tangible.app.services.data.DocumentCache;
+import team.tangible.app.services.emoji.EmojiAnimationLoader;
+import team.tangible.app.services.recording.InteractionPlayer;
+import team.tangible.app.services.recording.InteractionRecorder;
+import team.tangible.app.utils.InteractionLatencyTracer;
+import team.tangible.app.utils.StartupTrace;
+import team.tangible.app.utils.URLUtils;
+import timber.log.Timber;
 
 
 /**
@@ -60,61 +74,148 @@ import team.tangible.app.services.TangibleDataService;
  * a cylinderCount which is matched to provideEngineFactory by the @Named parameter/method annotation.
  * Using @Named, we can have multiple methods that have the same return type without confusing Dagger
  * and leading to a build error. Magic!
+ *
+ * Everything here is @Singleton: one instance for the whole application, created the first time
+ * it is needed. Objects that belong to a single activity live in {@link TangibleActivityModule}.
  */
 @Module
 public class TangibleApplicationModule {
     @Provides
+    @Singleton
     @Named(Constants.SharedPreferences.TEAM_TANGIBLE_APP)
     public SharedPreferences provideTeamTangibleAppSharedPreferences(Context context) {
-        return context.getSharedPreferences(Constants.SharedPreferences.TEAM_TANGIBLE_APP, Context.MODE_PRIVATE);
+        return StartupTrace.recordInstance(
+                context.getSharedPreferences(Constants.SharedPreferences.TEAM_TANGIBLE_APP, Context.MODE_PRIVATE));
     }
 
     @Provides
+    @Singleton
     public FirebaseAuth provideFirebaseAuth() {
-        return FirebaseAuth.getInstance();
+        return StartupTrace.recordInstance(FirebaseAuth.getInstance());
     }
 
     @Provides
+    @Singleton
     public AuthenticationService provideAuthenticationService(FirebaseAuth firebaseAuth) {
-        return new AuthenticationService(firebaseAuth);
+        return StartupTrace.recordInstance(new AuthenticationService(firebaseAuth));
     }
 
     @Provides
+    @Singleton
     @Named(Constants.Threading.MAIN_THREAD)
     public Handler provideMainThreadHandler(Context context) {
-        return new Handler(context.getMainLooper());
+        return StartupTrace.recordInstance(new Handler(context.getMainLooper()));
     }
 
     @Provides
+    @Singleton
     public TangibleBleConnectionService provideTangibleBleConnectionService(
             RxBleClient rxBleClient,
+            @Named(Constants.SharedPreferences.TEAM_TANGIBLE_APP)
+                    SharedPreferences sharedPreferences,
+            TangibleConnectionManager connectionManager,
+            InteractionLatencyTracer latencyTracer) {
+        return StartupTrace.recordInstance(
+                new TangibleBleConnectionService(rxBleClient, sharedPreferences, connectionManager, latencyTracer));
+    }
+
+    @Provides
+    @Singleton
+    public InteractionRecorder provideInteractionRecorder(
             @Named(Constants.SharedPreferences.TEAM_TANGIBLE_APP)
                     SharedPreferences sharedPreferences) {
-        return new TangibleBleConnectionService(rxBleClient, sharedPreferences);
+        return StartupTrace.recordInstance(new InteractionRecorder(Schedulers.io(),
+                sharedPreferences.getBoolean(Constants.SharedPreferences.Keys.INTERACTION_RECORDING_ENABLED, false)));
     }
 
     @Provides
-    public RxBleClient provideRxBleClient(Context context) {
-        return RxBleClient.create(context);
+    @Singleton
+    public InteractionPlayer provideInteractionPlayer(TangibleBleConnectionService tangibleBleConnectionService) {
+        return StartupTrace.recordInstance(new InteractionPlayer(tangibleBleConnectionService));
+    }
+
+    @Provides
+    @Singleton
+    public InteractionLatencyTracer provideInteractionLatencyTracer() {
+        return StartupTrace.recordInstance(new InteractionLatencyTracer());
     }
 
     @Provides
-    public SocialTouchInteractionService provideSocialTouchInteractionService(Context context) {
-        return new SocialTouchInteractionService(context);
+    @Singleton
+    public TangibleConnectionManager provideTangibleConnectionManager(RxBleClient rxBleClient) {
+        return StartupTrace.recordInstance(
+                new TangibleConnectionManager(rxBleClient, Constants.BluetoothLowEnergy.CONNECTION_GRACE_PERIOD_MS));
     }
 
     @Provides
+    @Singleton
+    public ConferenceService provideConferenceService() {
+        return StartupTrace.recordInstance(new ConferenceService(URLUtils.parse(BuildConfig.JITSI_SERVER_URL)));
+    }
+
+    @Provides
+    @Singleton
+    public ConferenceQualityGovernor provideConferenceQualityGovernor(Context context, InteractionLatencyTracer latencyTracer) {
+        ConferenceQualityProfile fixedProfile = null;
+        if (!Constants.Jitsi.AUTOMATIC_QUALITY_PROFILE.equals(BuildConfig.CONFERENCE_QUALITY_PROFILE)) {
+            try {
+                fixedProfile = ConferenceQualityProfile.valueOf(BuildConfig.CONFERENCE_QUALITY_PROFILE);
+            } catch (IllegalArgumentException exception) {
+                Timber.w("Unknown conference quality profile %s, choosing one automatically",
+                        BuildConfig.CONFERENCE_QUALITY_PROFILE);
+            }
+        }
+
+        return StartupTrace.recordInstance(new ConferenceQualityGovernor(context, latencyTracer, fixedProfile));
+    }
+
+    @Provides
+    @Singleton
+    public EmojiAnimationLoader provideEmojiAnimationLoader(Context context) {
+        return StartupTrace.recordInstance(new EmojiAnimationLoader(context));
+    }
+
+    @Provides
+    @Singleton
+    public RxBleClient provideRxBleClient(Context context) {
+        return StartupTrace.recordInstance(RxBleClient.create(context));
+    }
+
+    @Provides
+    @Singleton
     public FirebaseFirestore provideFirebaseFirestore() {
-        return FirebaseFirestore.getInstance();
+        FirebaseFirestore firebaseFirestore = FirebaseFirestore.getInstance();
+
+        if (!BuildConfig.FIRESTORE_EMULATOR_HOST.isEmpty()) {
+            Timber.w("Using the Firestore emulator at %s", BuildConfig.FIRESTORE_EMULATOR_HOST);
+            firebaseFirestore.setFirestoreSettings(new FirebaseFirestoreSettings.Builder()
+                    .setHost(BuildConfig.FIRESTORE_EMULATOR_HOST)
+                    .setSslEnabled(false)
+                    .setPersistenceEnabled(false)
+                    .build());
+        }
+
+        return StartupTrace.recordInstance(firebaseFirestore);
     }
 
+    /**
+     * Firestore is only handed over as a {@link Provider} so that it is not initialized until
+     * the first query, rather than whenever something that might query it is injected
+     */
     @Provides
-    public TangibleDataService provideTangibleDataService(FirebaseFirestore firebaseFirestore, AuthenticationService authenticationService) {
-        return new TangibleDataService(firebaseFirestore, authenticationService);
+    @Singleton
+    public TangibleDataService provideTangibleDataService(Provider<FirebaseFirestore> firebaseFirestoreProvider, AuthenticationService authenticationService,
+                                                          DocumentCache documentCache) {
+        return StartupTrace.recordInstance(new TangibleDataService(firebaseFirestoreProvider, authenticationService, documentCache,
+                Constants.Firebase.Firestore.DENORMALIZED_ROOM_RESOLUTION_ENABLED));
     }
 
     @Provides
-    public EmojiService provideEmojiService(Context context){
-        return new EmojiService(context);
+    @Singleton
+    public DocumentCache provideDocumentCache(
+            @Named(Constants.SharedPreferences.TEAM_TANGIBLE_APP)
+                    SharedPreferences sharedPreferences) {
+        return StartupTrace.recordInstance(
+                new DocumentCache(sharedPreferences, Constants.Firebase.Firestore.DOCUMENT_CACHE_TTL_MS));
     }
 }
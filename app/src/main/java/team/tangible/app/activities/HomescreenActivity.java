@@ -1,41 +1,64 @@
 package team.tangible.app.activities;
 
 import androidx.core.view.GestureDetectorCompat;
-import androidx.lifecycle.MutableLiveData;
 
 import android.content.Context;
+import android.content.Intent;
 import android.gesture.GestureOverlayView;
 import android.graphics.Color;
+import android.graphics.drawable.Animatable2;
+import android.graphics.drawable.AnimatedImageDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
+import android.view.Gravity;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
 import android.widget.FrameLayout;
+import android.widget.ImageView;
 import android.widget.RelativeLayout;
 import android.widget.Toast;
 
+import java.io.File;
+
 import com.amrdeveloper.reactbutton.ReactButton;
 import com.amrdeveloper.reactbutton.Reaction;
 
 import com.facebook.react.common.ReactConstants;
-import com.polidea.rxandroidble2.RxBleConnection;
 
+import dagger.Lazy;
+import io.reactivex.Completable;
 import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.schedulers.Schedulers;
 import team.tangible.app.Constants;
 import team.tangible.app.R;
+import team.tangible.app.TangibleActivityModule;
 import team.tangible.app.TangibleApplication;
+import team.tangible.app.results.TangibleAvailabilityResult;
+import team.tangible.app.services.ConferenceService;
 import team.tangible.app.services.SocialTouchInteractionService;
 import team.tangible.app.services.EmojiService;
 import team.tangible.app.services.TangibleBleConnectionService;
 import team.tangible.app.services.TangibleDataService;
+import team.tangible.app.services.ble.TangibleEvent;
+import team.tangible.app.services.conference.ConferenceQualityGovernor;
+import team.tangible.app.services.conference.ConferenceQualityProfile;
+import team.tangible.app.services.emoji.EmojiAnimationLoader;
+import team.tangible.app.services.recording.InteractionPlayer;
+import team.tangible.app.services.recording.InteractionRecorder;
+import team.tangible.app.services.touch.MultiTouchTracker;
+import team.tangible.app.services.touch.PredictivePressDispatcher;
+import team.tangible.app.services.touch.StrokeGestureEngine;
+import team.tangible.app.services.touch.TouchEventThrottle;
 import team.tangible.app.utils.ActivityUtils;
-import team.tangible.app.utils.URLUtils;
+import team.tangible.app.utils.InteractionLatencyTracer;
+import team.tangible.app.utils.StartupTrace;
 import timber.log.Timber;
 
 import org.jitsi.meet.sdk.JitsiMeetActivity;
-import org.jitsi.meet.sdk.JitsiMeetConferenceOptions;
 import org.jitsi.meet.sdk.JitsiMeetView;
 
 import javax.inject.Inject;
@@ -48,18 +71,55 @@ public class HomescreenActivity extends JitsiMeetActivity implements View.OnTouc
 
     private JitsiMeetView mJitsiMeetView;
     private static final int JITSI_CONTROLS_HEIGHT_PX = 600;
+    private static final String INTERACTION_LATENCY_FILE_NAME = "interaction-latency.txt";
+    private static final String INTERACTION_LOG_FILE_NAME = "interactions.tgil";
+
+    /**
+     * Name of an interaction log in the app's external files directory to play back once the
+     * Tangible is connected, e.g. {@code adb shell am start -n team.tangible.app/.activities.HomescreenActivity
+     * --es team.tangible.app.PLAYBACK_FILE_NAME interactions.tgil --ef team.tangible.app.PLAYBACK_SPEED 4}
+     */
+    public static final String EXTRA_PLAYBACK_FILE_NAME = "team.tangible.app.PLAYBACK_FILE_NAME";
+
+    /**
+     * See {@link InteractionPlayer#play(File, float)}, defaults to the recorded timing
+     */
+    public static final String EXTRA_PLAYBACK_SPEED = "team.tangible.app.PLAYBACK_SPEED";
+
     private FrameLayout mFrameLayout;
     private GestureOverlayView mGestureOverlayView;
+    private ImageView mEmojiAnimationView;
     private GestureDetectorCompat mDetector;
 
+    /**
+     * Whether the current touch became a stroke, after which the detector sees none of it
+     */
+    private boolean mIsTouchStroked;
+    private String mJoinedJitsiRoom;
+    private ConferenceQualityProfile mJoinedQualityProfile;
+
     CompositeDisposable mDisposables;
-    MutableLiveData<RxBleConnection> mRxBleConnectionLiveData = new MutableLiveData<>();
 
     @Inject
     SocialTouchInteractionService mSocialTouchInteractionService;
 
     @Inject
-    EmojiService mEmojiService;
+    StrokeGestureEngine mStrokeGestureEngine;
+
+    @Inject
+    MultiTouchTracker mMultiTouchTracker;
+
+    @Inject
+    PredictivePressDispatcher mPredictivePressDispatcher;
+
+    @Inject
+    TouchEventThrottle mTouchEventThrottle;
+
+    @Inject
+    Lazy<EmojiService> mEmojiService;
+
+    @Inject
+    EmojiAnimationLoader mEmojiAnimationLoader;
 
     @Inject
     TangibleBleConnectionService mTangibleBleConnectionService;
@@ -67,6 +127,21 @@ public class HomescreenActivity extends JitsiMeetActivity implements View.OnTouc
     @Inject
     TangibleDataService mTangibleDataService;
 
+    @Inject
+    ConferenceService mConferenceService;
+
+    @Inject
+    ConferenceQualityGovernor mConferenceQualityGovernor;
+
+    @Inject
+    InteractionLatencyTracer mLatencyTracer;
+
+    @Inject
+    InteractionRecorder mInteractionRecorder;
+
+    @Inject
+    InteractionPlayer mInteractionPlayer;
+
     @Inject
     @Named(Constants.Threading.MAIN_THREAD)
     Handler mMainThreadHandler;
@@ -79,7 +154,9 @@ public class HomescreenActivity extends JitsiMeetActivity implements View.OnTouc
         RelativeLayout relativeLayout = findViewById(R.id.activity_homescreen);
         Context context = relativeLayout.getContext();
 
-        ((TangibleApplication) getApplication()).getApplicationComponent().inject(this);
+        StartupTrace.traceInjection(this, () -> ((TangibleApplication) getApplication()).getApplicationComponent()
+                .activityComponent(new TangibleActivityModule(this))
+                .inject(this));
 
         relativeLayout.addView(mFrameLayout = new FrameLayout(context) {{
             setId(View.generateViewId());
@@ -97,6 +174,13 @@ public class HomescreenActivity extends JitsiMeetActivity implements View.OnTouc
                 setFadeEnabled(true);
                 setFadeOffset(500);
             }});
+            addView(mEmojiAnimationView = new ImageView(context) {{
+                setId(View.generateViewId());
+                setVisibility(GONE);
+            }}, new FrameLayout.LayoutParams(
+                    /* width: */ ActivityUtils.dpToPx(HomescreenActivity.this, Constants.Emoji.ANIMATION_SIZE_DP),
+                    /* height: */ ActivityUtils.dpToPx(HomescreenActivity.this, Constants.Emoji.ANIMATION_SIZE_DP),
+                    Gravity.CENTER));
         }});
 
         relativeLayout.getViewTreeObserver().addOnGlobalLayoutListener(() -> {
@@ -108,28 +192,35 @@ public class HomescreenActivity extends JitsiMeetActivity implements View.OnTouc
             mGestureOverlayView.setLayoutParams(new FrameLayout.LayoutParams(
                     /* width: */ FrameLayout.LayoutParams.MATCH_PARENT,
                     /* height: */ relativeLayout.getHeight() - JITSI_CONTROLS_HEIGHT_PX));
+
+            // Gesture coordinates are relative to the overlay, so the actuator zones must be too
+            mSocialTouchInteractionService.setTouchAreaSize(
+                    relativeLayout.getWidth(), relativeLayout.getHeight() - JITSI_CONTROLS_HEIGHT_PX);
         });
 
         mDetector = new GestureDetectorCompat(this, mSocialTouchInteractionService);
         mDetector.setOnDoubleTapListener(mSocialTouchInteractionService);
         mSocialTouchInteractionService.setOnInteractionListener(this);
-
-        Reaction heartEyes = new Reaction("HEART EYES", "HEART EYES", "RED", R.drawable.heart_eyes);
-        Reaction heart = new Reaction("HEART", "HEART","RED",R.drawable.heart);
-        Reaction kiss = new Reaction("KISS", "KISS", "BLUE",R.drawable.kiss);
-        Reaction handWave = new Reaction("HAND WAVE", "HAND WAVE","BLUE",R.drawable.hand_wave);
-        Reaction giggle = new Reaction("GIGGLE", "GIGGLE","BLUE",R.drawable.giggle);
-        Reaction sad = new Reaction("ANGRY", "ANGRY", "RED",R.drawable.angry_face);
-        Reaction angry = new Reaction("SAD", "SAD","BLUE",R.drawable.sad_face);
-        Reaction crazyFace = new Reaction("CRAZY FACE", "CRAZY FACE","BLUE",R.drawable.crazy_face);
-        Reaction confetti = new Reaction("CONFETTI", "CONFETTI","BLUE",R.drawable.confetti);
-        Reaction star = new Reaction("STAR", "STAR","BLUE",R.drawable.star);
+        mStrokeGestureEngine.setOnStrokeFrameListener(this::writeFrame);
+        mMultiTouchTracker.setOnMultiTouchFrameListener(this::writeFrame);
+        mPredictivePressDispatcher.setOnPressFrameListener(this::writeFrame);
+
+        // The react type names the EmojiService interaction the reaction stands for
+        Reaction heartEyes = new Reaction("HEART EYES", EmojiService.Interaction.HEART_EYES.name(), "RED", R.drawable.heart_eyes);
+        Reaction heart = new Reaction("HEART", EmojiService.Interaction.HEART.name(), "RED", R.drawable.heart);
+        Reaction kiss = new Reaction("KISS", EmojiService.Interaction.KISS.name(), "BLUE", R.drawable.kiss);
+        Reaction handWave = new Reaction("HAND WAVE", EmojiService.Interaction.HAND_WAVE.name(), "BLUE", R.drawable.hand_wave);
+        Reaction giggle = new Reaction("GIGGLE", EmojiService.Interaction.GIGGLE.name(), "BLUE", R.drawable.giggle);
+        Reaction confetti = new Reaction("CONFETTI", EmojiService.Interaction.CONFETTI.name(), "BLUE", R.drawable.confetti);
 
         ReactButton emojiButton = new ReactButton(context);
         emojiButton.setReactions(heartEyes, heart, kiss, handWave, giggle, confetti);
         emojiButton.setDefaultReaction(heartEyes);
+        emojiButton.setOnReactionChangeListener(mEmojiService.get());
         relativeLayout.addView(emojiButton);
 
+        mEmojiService.get().setOnClickListener(this::playEmojiAnimation);
+
 
     }
 
@@ -139,10 +230,50 @@ public class HomescreenActivity extends JitsiMeetActivity implements View.OnTouc
 
         mDisposables = new CompositeDisposable();
 
+        mInteractionRecorder.start(new File(getExternalFilesDir(null), INTERACTION_LOG_FILE_NAME));
+
+        mTangibleBleConnectionService.getWritePipeline().setOnWriteErrorListener(throwable -> {
+            runOnUiThread(() -> {
+                Toast.makeText(HomescreenActivity.this, throwable.getMessage(), Toast.LENGTH_LONG).show();
+            });
+        });
+
+        mDisposables.add(mTangibleBleConnectionService.observeConnectionState().subscribe(connectionState -> {
+            Timber.i("BLE connection state is %s", connectionState);
+        }, Timber::e));
+
+        mDisposables.add(mTangibleBleConnectionService.observeEvents().subscribe(tangibleEvent -> {
+            Timber.i("Tangible reported %s", tangibleEvent);
+
+            if (tangibleEvent instanceof TangibleEvent.DeviceError) {
+                runOnUiThread(() -> {
+                    Toast.makeText(HomescreenActivity.this,
+                            getResources().getString(R.string.tangible_device_error,
+                                    ((TangibleEvent.DeviceError) tangibleEvent).getErrorCode()),
+                            Toast.LENGTH_LONG).show();
+                });
+            }
+        }, Timber::e));
+
+        // We may have been sent here on the strength of a recent sighting, in which case a scan is
+        // still confirming it. Tell the user if it did not.
+        mDisposables.add(mTangibleBleConnectionService.takeBackgroundAvailabilityResult().subscribe(result -> {
+            if (result == TangibleAvailabilityResult.NOT_FOUND) {
+                runOnUiThread(() -> Toast.makeText(HomescreenActivity.this, R.string.tangible_not_found, Toast.LENGTH_LONG).show());
+            }
+        }, throwable -> {
+            if (throwable instanceof TangibleBleConnectionService.RuntimePermissionsNotGranted) {
+                runOnUiThread(() -> {
+                    startActivity(new Intent(HomescreenActivity.this, PairingActivity.class));
+                    finish();
+                });
+            }
+        }));
+
         mDisposables.add(mTangibleBleConnectionService.getConnection().subscribe(rxBleConnection -> {
             Timber.i("Successfully acquired BLE connection");
 
-            mMainThreadHandler.post(() -> mRxBleConnectionLiveData.setValue(rxBleConnection));
+            runOnUiThread(this::playBackRequestedInteractions);
 
         }, throwable -> {
             Timber.e(throwable);
@@ -153,19 +284,14 @@ public class HomescreenActivity extends JitsiMeetActivity implements View.OnTouc
 
         }));
 
-        mDisposables.add(mTangibleDataService.getCurrentUserRoom().subscribe(dataRecord -> {
+        // The governor and its profile changes both live on the main thread
+        mConferenceQualityGovernor.start();
+        mDisposables.add(mConferenceQualityGovernor.observeProfile().subscribe(this::onQualityProfileChanged, Timber::e));
+
+        mDisposables.add(mTangibleDataService.observeCurrentUserRoom().subscribe(dataRecord -> {
             Timber.i("Received jitsiRoom %s from data service", dataRecord.getData().getJitsiRoom());
 
-            runOnUiThread(() -> {
-                mJitsiMeetView.join(new JitsiMeetConferenceOptions.Builder()
-                        .setServerURL(URLUtils.parse("https://meet.jit.si"))
-                        .setRoom(dataRecord.getData().getJitsiRoom())
-                        .setAudioMuted(false)
-                        .setVideoMuted(false)
-                        .setAudioOnly(false)
-                        .setWelcomePageEnabled(false)
-                        .build());
-            });
+            runOnUiThread(() -> joinJitsiRoom(dataRecord.getData().getJitsiRoom()));
 
         }, throwable -> {
             Timber.e(throwable);
@@ -177,10 +303,57 @@ public class HomescreenActivity extends JitsiMeetActivity implements View.OnTouc
         }));
     }
 
+    /**
+     * Joins the room unless we are already in it. The cached room is served first and Firestore
+     * may then confirm it, which must not interrupt the call.
+     */
+    private void joinJitsiRoom(String jitsiRoom) {
+        if (jitsiRoom == null || jitsiRoom.equals(mJoinedJitsiRoom)) {
+            return;
+        }
+
+        if (mJoinedJitsiRoom != null) {
+            Timber.i("Room changed from %s to %s, rejoining", mJoinedJitsiRoom, jitsiRoom);
+            mJitsiMeetView.leave();
+        }
+
+        mJoinedJitsiRoom = jitsiRoom;
+        mJoinedQualityProfile = mConferenceQualityGovernor.getProfile();
+        mJitsiMeetView.join(mConferenceService.getConferenceOptions(jitsiRoom, mJoinedQualityProfile));
+    }
+
+    /**
+     * Rejoins the current room at a lower quality when the device can no longer afford the one it
+     * joined at. Going back up would interrupt the call too, so that waits for the next join.
+     */
+    private void onQualityProfileChanged(ConferenceQualityProfile profile) {
+        if (mJoinedJitsiRoom == null || !profile.isWorseThan(mJoinedQualityProfile)) {
+            return;
+        }
+
+        Timber.i("Rejoining %s at %s quality", mJoinedJitsiRoom, profile);
+        mJitsiMeetView.leave();
+        mJoinedQualityProfile = profile;
+        mJitsiMeetView.join(mConferenceService.getConferenceOptions(mJoinedJitsiRoom, profile));
+    }
+
     @Override
     protected void onStop() {
         super.onStop();
 
+        mTangibleBleConnectionService.getWritePipeline().setOnWriteErrorListener(null);
+        mConferenceQualityGovernor.stop();
+        mStrokeGestureEngine.cancel();
+        mMultiTouchTracker.cancel();
+        mPredictivePressDispatcher.cancel();
+
+        if (mTangibleBleConnectionService.isReliableDeliveryEnabled()) {
+            Timber.i("BLE ack latency %s", mTangibleBleConnectionService.getAckLatencyHistogram().getSummary());
+        }
+
+        mInteractionRecorder.stop();
+        dumpInteractionLatency();
+
         if (mDisposables != null) {
             mDisposables.dispose();
             mDisposables = null;
@@ -196,39 +369,139 @@ public class HomescreenActivity extends JitsiMeetActivity implements View.OnTouc
         }
     }
 
-    @Override
-    public boolean onTouch(View v, MotionEvent event) {
-        return this.mDetector.onTouchEvent(event);
+    /**
+     * Logs the touch-to-actuator latency so far and appends it to a file in the app's external
+     * files directory, where it can be pulled with adb
+     */
+    private void dumpInteractionLatency() {
+        mLatencyTracer.dumpToLogcat();
+
+        File latencyFile = new File(getExternalFilesDir(null), INTERACTION_LATENCY_FILE_NAME);
+        Completable.fromAction(() -> mLatencyTracer.dumpToFile(latencyFile))
+                .subscribeOn(Schedulers.io())
+                .subscribe(() -> Timber.i("Wrote interaction latency to %s", latencyFile),
+                        throwable -> Timber.w(throwable, "Failed to write interaction latency"));
     }
 
-    @Override
-    public void onInteraction(SocialTouchInteractionService.Interaction interaction) {
-        Timber.i(interaction.getBleCode());
+    /**
+     * Plays back the interaction log named in the intent, if any, and dumps the latency it caused.
+     * The request is cleared so reconnecting does not play the log again.
+     */
+    private void playBackRequestedInteractions() {
+        String fileName = getIntent().getStringExtra(EXTRA_PLAYBACK_FILE_NAME);
+        if (fileName == null || mDisposables == null) {
+            return;
+        }
+        getIntent().removeExtra(EXTRA_PLAYBACK_FILE_NAME);
 
-        if (interaction == SocialTouchInteractionService.Interaction.UNKNOWN) {
+        File file = new File(getExternalFilesDir(null), fileName);
+        float speed = getIntent().getFloatExtra(EXTRA_PLAYBACK_SPEED, 1);
+
+        Timber.i("Playing back %s at %.1fx", file, speed);
+        mLatencyTracer.reset();
+        mDisposables.add(mInteractionPlayer.play(file, speed).subscribe(
+                this::dumpInteractionLatency,
+                throwable -> Timber.w(throwable, "Failed to play back %s", file)));
+    }
+
+    private void writeFrame(byte[] frame) {
+        mInteractionRecorder.record(frame);
+        mTangibleBleConnectionService.writeFrame(frame);
+    }
+
+    /**
+     * Plays the reaction's animation once over the call, or shows its still icon for a moment
+     * where animations are not supported
+     */
+    private void playEmojiAnimation(EmojiService.Interaction interaction) {
+        if (interaction == EmojiService.Interaction.UNKNOWN || mDisposables == null) {
             return;
         }
 
-        mMainThreadHandler.post(() -> {
-            RxBleConnection bleConnection = mRxBleConnectionLiveData.getValue();
-            if (bleConnection == null) {
-                return;
-            }
+        mInteractionRecorder.record(interaction);
 
-            byte[] message = mTangibleBleConnectionService.getTangibleInteractionMessageWithCrc(interaction);
+        int sizePx = ActivityUtils.dpToPx(this, Constants.Emoji.ANIMATION_SIZE_DP);
+        mDisposables.add(mEmojiAnimationLoader.loadAnimation(interaction, sizePx).subscribe(drawable -> {
+            runOnUiThread(() -> {
+                mEmojiAnimationView.setImageDrawable(drawable);
+                mEmojiAnimationView.setVisibility(View.VISIBLE);
+
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P && drawable instanceof AnimatedImageDrawable) {
+                    AnimatedImageDrawable animatedImageDrawable = (AnimatedImageDrawable) drawable;
+                    animatedImageDrawable.setRepeatCount(0);
+                    animatedImageDrawable.registerAnimationCallback(new Animatable2.AnimationCallback() {
+                        @Override
+                        public void onAnimationEnd(Drawable ended) {
+                            hideEmojiAnimation(ended);
+                        }
+                    });
+                    animatedImageDrawable.start();
+                } else {
+                    mMainThreadHandler.postDelayed(() -> hideEmojiAnimation(drawable),
+                            Constants.Emoji.STILL_DISPLAY_DURATION_MS);
+                }
+            });
+        }, throwable -> Timber.w(throwable, "Failed to load the %s animation", interaction)));
+    }
+
+    private void hideEmojiAnimation(Drawable drawable) {
+        // A later reaction may have replaced this one in the meantime
+        if (mEmojiAnimationView.getDrawable() == drawable) {
+            mEmojiAnimationView.setVisibility(View.GONE);
+            mEmojiAnimationView.setImageDrawable(null);
+        }
+    }
 
-            mDisposables.add(bleConnection.writeCharacteristic(Characteristics.RX, message).subscribe(result -> {
+    @Override
+    public boolean onTouch(View v, MotionEvent event) {
+        int action = event.getActionMasked();
+        if (action == MotionEvent.ACTION_DOWN || action == MotionEvent.ACTION_POINTER_DOWN) {
+            mLatencyTracer.beginTrace(event.getEventTime());
+        }
+        if (mTouchEventThrottle.shouldDispatch(event)) {
+            mMultiTouchTracker.onTouchEvent(event);
+            mPredictivePressDispatcher.onTouchEvent(event);
+        }
+
+        // The stroke engine and the detector see every move: the stroke follows each point's
+        // history and the fling velocity depends on them. Moves never change the finger count, so
+        // the tracker is current even when it skipped this one.
+        if (mMultiTouchTracker.isMultiTouch()) {
+            // Several fingers play their zones together rather than stroking
+            mStrokeGestureEngine.cancel();
+        } else {
+            mStrokeGestureEngine.onTouchEvent(event);
+        }
 
-                Timber.i("Received ack from BLE device for message %s", new String(result));
+        if (action == MotionEvent.ACTION_DOWN) {
+            mIsTouchStroked = false;
+        }
+        if (mIsTouchStroked) {
+            return true;
+        }
+        if (mStrokeGestureEngine.isStroking()) {
+            // A touch already played as a stroke must not also end in a fling or a tap
+            mIsTouchStroked = true;
+            MotionEvent cancelEvent = MotionEvent.obtain(event);
+            cancelEvent.setAction(MotionEvent.ACTION_CANCEL);
+            mDetector.onTouchEvent(cancelEvent);
+            cancelEvent.recycle();
+            return true;
+        }
+        return this.mDetector.onTouchEvent(event);
+    }
 
-            }, throwable -> {
+    @Override
+    public void onInteraction(SocialTouchInteractionService.Interaction interaction, int intensity, int duration) {
+        Timber.i(interaction.getBleCode());
+        mPredictivePressDispatcher.confirm();
 
-                Timber.e(throwable);
+        if (interaction == SocialTouchInteractionService.Interaction.UNKNOWN) {
+            mLatencyTracer.endTrace();
+            return;
+        }
 
-                runOnUiThread(() -> {
-                    Toast.makeText(HomescreenActivity.this, throwable.getMessage(), Toast.LENGTH_LONG).show();
-                });
-            }));
-        });
+        mInteractionRecorder.record(interaction, intensity, duration);
+        mTangibleBleConnectionService.writeInteraction(interaction, intensity, duration);
     }
 }
@@ -5,6 +5,10 @@ import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.lifecycle.MutableLiveData;
 import androidx.lifecycle.Observer;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.ListAdapter;
+import androidx.recyclerview.widget.RecyclerView;
 
 import android.content.DialogInterface;
 import android.content.Intent;
@@ -12,11 +16,10 @@ import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.BaseAdapter;
 import android.widget.Button;
-import android.widget.ListView;
 import android.widget.TextView;
 import android.widget.Toast;
 
@@ -27,22 +30,30 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 
 import butterknife.BindView;
 import butterknife.ButterKnife;
+import dagger.Lazy;
+import io.reactivex.Observable;
 import io.reactivex.disposables.CompositeDisposable;
 import io.reactivex.disposables.Disposable;
 import team.tangible.app.BuildConfig;
 import team.tangible.app.Constants;
 import team.tangible.app.R;
+import team.tangible.app.TangibleActivityModule;
 import team.tangible.app.TangibleApplication;
 import team.tangible.app.results.TangibleAvailabilityResult;
 import team.tangible.app.services.AuthenticationService;
 import team.tangible.app.services.TangibleBleConnectionService;
+import team.tangible.app.services.ble.PairingCandidateRanker;
+import team.tangible.app.services.ble.ScanResultStore;
+import team.tangible.app.services.models.ScannedDevice;
 import team.tangible.app.utils.ActivityUtils;
+import team.tangible.app.utils.StartupTrace;
 import team.tangible.app.utils.ArrayUtils;
 import timber.log.Timber;
 
@@ -54,11 +65,23 @@ public class PairingActivity extends AppCompatActivity {
 
     private static final int BLUETOOTH_PERMISSIONS_REQUEST_CODE = 42;
 
+    /**
+     * Devices that have not advertised for this long are removed from the list
+     */
+    private static final long SCANNED_DEVICE_STALE_TIMEOUT_MS = 10000;
+    private static final long SCANNED_DEVICE_STALE_CHECK_INTERVAL_MS = 1000;
+
+    /**
+     * The list is refreshed at most this often however busy the airwaves are. Each refresh is
+     * diffed off the main thread, so this bounds the work per frame rather than per advertisement.
+     */
+    private static final long SCANNED_DEVICES_UI_UPDATE_INTERVAL_MS = 100;
+
     @BindView(R.id.activity_pairing_status)
     TextView mStatusTextView;
 
     @BindView(R.id.activity_pairing_scanned_peripherals)
-    ListView mScannedPeripheralsListView;
+    RecyclerView mScannedPeripheralsRecyclerView;
 
     @BindView(R.id.activity_pairing_continue_without_pairing)
     Button mContinueWithoutPairingButton;
@@ -70,14 +93,25 @@ public class PairingActivity extends AppCompatActivity {
 
     private Disposable mScanSubscription;
 
-    private MutableLiveData<List<RxBleDevice>> mRxBleDevicesLiveData = new MutableLiveData<>(new ArrayList<>());
+    private final ScanResultStore mScanResultStore = new ScanResultStore(SCANNED_DEVICE_STALE_TIMEOUT_MS);
+
+    private final PairingCandidateRanker mPairingCandidateRanker = new PairingCandidateRanker();
+
+    /**
+     * The device pairing was last suggested for, so the suggestion is only made once per device
+     */
+    private String mSuggestedPairingMacAddress;
+
+    private AlertDialog mConfirmPairingDialog;
+
+    private MutableLiveData<List<ScannedDevice>> mScannedDevicesLiveData = new MutableLiveData<>(new ArrayList<>());
 
     @Inject
     @Named(Constants.Threading.MAIN_THREAD)
     Handler mMainThreadHandler;
 
     @Inject
-    AuthenticationService mAuthenticationService;
+    Lazy<AuthenticationService> mAuthenticationService;
 
     private CompositeDisposable mDisposables;
 
@@ -89,7 +123,9 @@ public class PairingActivity extends AppCompatActivity {
 
         ButterKnife.bind(this);
 
-        ((TangibleApplication) getApplication()).getApplicationComponent().inject(this);
+        StartupTrace.traceInjection(this, () -> ((TangibleApplication) getApplication()).getApplicationComponent()
+                .activityComponent(new TangibleActivityModule(this))
+                .inject(this));
 
         // Only present the "Continue without Pairing" button in debug mode
         if (BuildConfig.DEBUG) {
@@ -101,10 +137,11 @@ public class PairingActivity extends AppCompatActivity {
         }
 
         // Make the list view respond to changes through this adapter
-        mScannedPeripheralsListView.setAdapter(mScannedPeripheralsAdapter);
+        mScannedPeripheralsRecyclerView.setLayoutManager(new LinearLayoutManager(this));
+        mScannedPeripheralsRecyclerView.setAdapter(mScannedPeripheralsAdapter);
 
         // Listen for changes to the available BLE devices and post to the adapter
-        mRxBleDevicesLiveData.observe(this, mScannedPeripheralsAdapter);
+        mScannedDevicesLiveData.observe(this, mScannedPeripheralsAdapter);
     }
 
     @Override
@@ -122,11 +159,15 @@ public class PairingActivity extends AppCompatActivity {
             onAllPermissionsGranted();
         }
 
-        mRxBleDevicesLiveData.observe(this, rxBleDevices -> {
-            if (rxBleDevices.isEmpty()) {
+        mScannedDevicesLiveData.observe(this, scannedDevices -> {
+            if (scannedDevices.isEmpty()) {
                 mStatusTextView.setText(R.string.no_bluetooth_devices_found_searching);
             } else {
-                mStatusTextView.setText(getResources().getString(R.string.bluetooth_devices_found, rxBleDevices.size()));
+                mStatusTextView.setText(getResources().getString(R.string.bluetooth_devices_found, scannedDevices.size()));
+            }
+
+            if (Constants.Pairing.SUGGEST_CLEAR_WINNER_PAIRING) {
+                suggestPairingWithClearWinner(scannedDevices);
             }
         });
     }
@@ -161,28 +202,63 @@ public class PairingActivity extends AppCompatActivity {
     }
 
     private void startBleDeviceScan() {
-        mScanSubscription = mTangibleBleConnectionService.scanBleDevices().subscribe(
-            (ScanResult scanResult) -> {
-                // Process scan result here
-                RxBleDevice bleDevice = scanResult.getBleDevice();
-                if (bleDevice != null && bleDevice.getName() != null) {
-                    List<RxBleDevice> devicesList = Objects.requireNonNull(mRxBleDevicesLiveData.getValue());
-
-                    if (!devicesList.contains(bleDevice)) {
-                        devicesList.add(bleDevice);
-                        mRxBleDevicesLiveData.setValue(devicesList);
-                        Timber.i("Added BLE Device to live data: %s", bleDevice.getName());
-                    } else {
-                        Timber.d("BLE Device already in live data: %s", bleDevice.getName());
+        // Every advertisement updates the store, but the UI only hears about it through a
+        // throttled stream of snapshots
+        Observable<Boolean> scanResultChanges = mTangibleBleConnectionService.scanBleDevices()
+                .filter(scanResult -> scanResult.getBleDevice().getName() != null)
+                .map(scanResult -> mScanResultStore.onScanResult(scanResult, SystemClock.elapsedRealtime()));
+
+        Observable<Boolean> staleDeviceChanges = Observable
+                .interval(SCANNED_DEVICE_STALE_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS)
+                .map(tick -> mScanResultStore.expireStaleDevices(SystemClock.elapsedRealtime()));
+
+        mScanSubscription = Observable.merge(scanResultChanges, staleDeviceChanges)
+                .filter(hasChanged -> hasChanged)
+                .throttleLatest(SCANNED_DEVICES_UI_UPDATE_INTERVAL_MS, TimeUnit.MILLISECONDS)
+                .map(hasChanged -> mPairingCandidateRanker.rank(mScanResultStore.getDevices()))
+                .subscribe(
+                    (List<ScannedDevice> scannedDevices) -> {
+                        Timber.d("Scan result store holds %d BLE devices", scannedDevices.size());
+                        mMainThreadHandler.post(() -> mScannedDevicesLiveData.setValue(scannedDevices));
+                    },
+                    (Throwable throwable) -> {
+                        // Handle an error here.
+                        Timber.e(throwable);
                     }
+                );
+    }
 
-                }
-            },
-            (Throwable throwable) -> {
-                // Handle an error here.
-                Timber.e(throwable);
-            }
-        );
+    /**
+     * @param scannedDevices the current scan snapshot
+     */
+    private void suggestPairingWithClearWinner(List<ScannedDevice> scannedDevices) {
+        ScannedDevice clearWinner = mPairingCandidateRanker.findClearWinner(scannedDevices);
+
+        if (clearWinner == null
+                || Objects.equals(clearWinner.getMacAddress(), mSuggestedPairingMacAddress)
+                || (mConfirmPairingDialog != null && mConfirmPairingDialog.isShowing())) {
+            return;
+        }
+
+        Timber.i("Suggesting pairing with %s (smoothed RSSI %.1f dBm)", clearWinner.getMacAddress(), clearWinner.getSmoothedRssi());
+        mSuggestedPairingMacAddress = clearWinner.getMacAddress();
+        showConfirmPairingDialog(clearWinner);
+    }
+
+    private void showConfirmPairingDialog(ScannedDevice scannedDevice) {
+        if (mConfirmPairingDialog != null) {
+            mConfirmPairingDialog.dismiss();
+        }
+
+        mConfirmPairingDialog = new AlertDialog.Builder(PairingActivity.this)
+                .setTitle("Confirm Tangible pairing")
+                .setMessage("Is this device your Tangible?\n" + scannedDevice.getName())
+                .setCancelable(false)
+                .setNegativeButton("Cancel", null)
+                .setPositiveButton("Confirm pairing",
+                        new PositiveButtonConfirmPairingOnClickListener(scannedDevice.getBleDevice()))
+                .create();
+        mConfirmPairingDialog.show();
     }
 
     @Override
@@ -198,60 +274,67 @@ public class PairingActivity extends AppCompatActivity {
             mDisposables.dispose();
             mDisposables = null;
         }
+
+        if (mConfirmPairingDialog != null) {
+            mConfirmPairingDialog.dismiss();
+            mConfirmPairingDialog = null;
+        }
     }
 
     /**
-     * A ListView adapter that syncs the discovered devices with the UI
+     * A RecyclerView adapter that syncs the discovered devices with the UI. Each new snapshot is
+     * diffed against the previous one in the background, so only the rows that changed are rebound.
      */
-    private class ScannedPeripheralsAdapter extends BaseAdapter implements Observer<List<RxBleDevice>> {
+    private class ScannedPeripheralsAdapter extends ListAdapter<ScannedDevice, ScannedPeripheralViewHolder> implements Observer<List<ScannedDevice>> {
 
-        List<RxBleDevice> discoveredPeripherals = new ArrayList<>();
-
-        @Override
-        public int getCount() {
-            return discoveredPeripherals.size();
-        }
+        ScannedPeripheralsAdapter() {
+            super(new DiffUtil.ItemCallback<ScannedDevice>() {
+                @Override
+                public boolean areItemsTheSame(@NonNull ScannedDevice oldItem, @NonNull ScannedDevice newItem) {
+                    return Objects.equals(oldItem.getMacAddress(), newItem.getMacAddress());
+                }
 
-        @Override
-        public Object getItem(int position) {
-            return discoveredPeripherals.get(position);
+                @Override
+                public boolean areContentsTheSame(@NonNull ScannedDevice oldItem, @NonNull ScannedDevice newItem) {
+                    return Objects.equals(oldItem.getName(), newItem.getName()) && oldItem.getRssi() == newItem.getRssi();
+                }
+            });
         }
 
+        @NonNull
         @Override
-        public long getItemId(int position) {
-            return position;
+        public ScannedPeripheralViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+            View itemView = getLayoutInflater().inflate(R.layout.activity_pairing_scanned_peripherals_list_item, parent, false);
+            return new ScannedPeripheralViewHolder(itemView);
         }
 
         @Override
-        public View getView(int position, View convertView, ViewGroup parent) {
-            if (convertView == null) {
-                convertView = getLayoutInflater().inflate(R.layout.activity_pairing_scanned_peripherals_list_item, parent, false);
-            }
-
-            RxBleDevice bleDevice = (RxBleDevice) getItem(position);
+        public void onBindViewHolder(@NonNull ScannedPeripheralViewHolder viewHolder, int position) {
+            ScannedDevice scannedDevice = getItem(position);
 
             // Bind text and listeners to list item Views
-            ((TextView) convertView.findViewById(R.id.text_view_device_name)).setText(bleDevice.getName());
-            ((TextView) convertView.findViewById(R.id.text_view_device_address)).setText(bleDevice.getMacAddress());
-            ((Button) convertView.findViewById(R.id.button_connect)).setOnClickListener((View v) -> {
-                new AlertDialog.Builder(PairingActivity.this)
-                        .setTitle("Confirm Tangible pairing")
-                        .setMessage("Is this device your Tangible?\n" + bleDevice.getName())
-                        .setCancelable(false)
-                        .setNegativeButton("Cancel", null)
-                        .setPositiveButton("Confirm pairing",
-                                new PositiveButtonConfirmPairingOnClickListener(bleDevice))
-                        .create()
-                        .show();
-            });
-
-            return convertView;
+            viewHolder.mDeviceNameTextView.setText(scannedDevice.getName());
+            viewHolder.mDeviceAddressTextView.setText(getResources().getString(
+                    R.string.bluetooth_device_address_and_rssi, scannedDevice.getMacAddress(), scannedDevice.getRssi()));
+            viewHolder.mConnectButton.setOnClickListener((View v) -> showConfirmPairingDialog(scannedDevice));
         }
 
         @Override
-        public void onChanged(List<RxBleDevice> rxBleDevices) {
-            discoveredPeripherals = rxBleDevices;
-            notifyDataSetChanged();
+        public void onChanged(List<ScannedDevice> scannedDevices) {
+            submitList(scannedDevices);
+        }
+    }
+
+    private static class ScannedPeripheralViewHolder extends RecyclerView.ViewHolder {
+        final TextView mDeviceNameTextView;
+        final TextView mDeviceAddressTextView;
+        final Button mConnectButton;
+
+        ScannedPeripheralViewHolder(View itemView) {
+            super(itemView);
+            mDeviceNameTextView = itemView.findViewById(R.id.text_view_device_name);
+            mDeviceAddressTextView = itemView.findViewById(R.id.text_view_device_address);
+            mConnectButton = itemView.findViewById(R.id.button_connect);
         }
     }
 
@@ -293,7 +376,7 @@ public class PairingActivity extends AppCompatActivity {
                 return;
             }
 
-            if (mAuthenticationService.isUserLoggedIn()) {
+            if (mAuthenticationService.get().isUserLoggedIn()) {
                 // Then move to the Homescreen! We're done with all the setup
                 startActivity(new Intent(PairingActivity.this, HomescreenActivity.class));
                 finish();
@@ -4,6 +4,7 @@ import android.app.Activity;
 import android.content.Intent;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.widget.Toast;
 
 import androidx.appcompat.app.AppCompatActivity;
@@ -20,11 +21,15 @@ import io.reactivex.disposables.Disposable;
 import team.tangible.app.BuildConfig;
 import team.tangible.app.Constants;
 import team.tangible.app.R;
+import team.tangible.app.TangibleActivityModule;
 import team.tangible.app.TangibleApplication;
 import team.tangible.app.results.TangibleAvailabilityResult;
 import team.tangible.app.services.AuthenticationService;
+import team.tangible.app.services.ConferenceService;
 import team.tangible.app.services.TangibleBleConnectionService;
+import team.tangible.app.services.TangibleDataService;
 import team.tangible.app.utils.ActivityUtils;
+import team.tangible.app.utils.StartupTrace;
 import timber.log.Timber;
 
 import static co.apptailor.googlesignin.RNGoogleSigninModule.RC_SIGN_IN;
@@ -42,6 +47,8 @@ public class SplashActivity extends AppCompatActivity {
 
     private CompositeDisposable mDisposables;
 
+    private long mCreatedAtMs;
+
     @Inject
     @Named(Constants.Threading.MAIN_THREAD)
     Handler mMainThreadHandler;
@@ -52,14 +59,23 @@ public class SplashActivity extends AppCompatActivity {
     @Inject
     TangibleBleConnectionService mTangibleBleConnectionService;
 
+    @Inject
+    TangibleDataService mTangibleDataService;
+
+    @Inject
+    ConferenceService mConferenceService;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        mCreatedAtMs = SystemClock.elapsedRealtime();
         setContentView(R.layout.activity_splash);
 
         ButterKnife.bind(this);
 
-        ((TangibleApplication) getApplication()).getApplicationComponent().inject(this);
+        StartupTrace.traceInjection(this, () -> ((TangibleApplication) getApplication()).getApplicationComponent()
+                .activityComponent(new TangibleActivityModule(this))
+                .inject(this));
     }
 
     @Override
@@ -74,17 +90,34 @@ public class SplashActivity extends AppCompatActivity {
         mIsUserPairedWithTangibleLiveData.observe(this, tangibleAvailabilityResult -> onLiveDataChanged());
         mIsUserLoggedInLiveData.observe(this, loginResult -> onLiveDataChanged());
 
-        // Check if the Tangible is available
-        mDisposables.add(mTangibleBleConnectionService.isTangibleAvailable().subscribe(result -> {
-            mMainThreadHandler.post(() -> mIsUserPairedWithTangibleLiveData.setValue(result));
-        }, throwable -> {
-            if (throwable instanceof TangibleBleConnectionService.RuntimePermissionsNotGranted) {
-                moveTo(PairingActivity.class);
-            }
-        }));
+        // Check if the user is logged in. This is a local check so it can be answered right away,
+        // and if they are, start resolving their room and booting Jitsi while we look for the
+        // Tangible
+        boolean isUserLoggedIn = mAuthenticationService.isUserLoggedIn();
+        if (isUserLoggedIn) {
+            mTangibleDataService.prefetchCurrentUserRoom();
+            mConferenceService.prewarm(this);
+        }
+
+        // Check if the Tangible is available. If it was seen recently, go ahead optimistically and
+        // let the scan confirm it in the background rather than holding up the splash screen. The
+        // permissions are checked up front since a revoked one would otherwise only surface there.
+        if (mTangibleBleConnectionService.getCachedAvailability() == TangibleAvailabilityResult.AVAILABLE
+                && mTangibleBleConnectionService.areRuntimePermissionsGranted()) {
+            Timber.i("Tangible was seen recently, skipping the availability scan");
+            mTangibleBleConnectionService.verifyAvailabilityInBackground();
+            mIsUserPairedWithTangibleLiveData.setValue(TangibleAvailabilityResult.AVAILABLE);
+        } else {
+            mDisposables.add(mTangibleBleConnectionService.isTangibleAvailable().subscribe(result -> {
+                mMainThreadHandler.post(() -> mIsUserPairedWithTangibleLiveData.setValue(result));
+            }, throwable -> {
+                if (throwable instanceof TangibleBleConnectionService.RuntimePermissionsNotGranted) {
+                    moveTo(PairingActivity.class);
+                }
+            }));
+        }
 
-        // Check if the user is logged in
-       mMainThreadHandler.post(() -> mIsUserLoggedInLiveData.postValue(mAuthenticationService.isUserLoggedIn()));
+        mIsUserLoggedInLiveData.setValue(isUserLoggedIn);
     }
 
     @Override
@@ -107,7 +140,8 @@ public class SplashActivity extends AppCompatActivity {
     }
 
     private void moveTo(Class<? extends Activity> destinationActivity) {
-        Timber.i("Moving to %s", destinationActivity.getSimpleName());
+        Timber.i("Moving to %s %d ms after launch", destinationActivity.getSimpleName(),
+                SystemClock.elapsedRealtime() - mCreatedAtMs);
         Intent intent = new Intent(SplashActivity.this, destinationActivity);
         startActivity(intent);
         finish();
@@ -0,0 +1,76 @@
+package team.tangible.app.services;
+
+import android.app.Activity;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import org.jitsi.meet.sdk.JitsiMeet;
+import org.jitsi.meet.sdk.JitsiMeetConferenceOptions;
+import org.jitsi.meet.sdk.JitsiMeetView;
+
+import java.net.URL;
+
+import team.tangible.app.services.conference.ConferenceQualityProfile;
+import timber.log.Timber;
+
+/**
+ * Owns how the app talks to Jitsi. The first {@link JitsiMeetView} created in the process boots the
+ * React Native runtime behind the SDK, which takes long enough to dominate joining a call, so
+ * {@link #prewarm(Activity)} does that during the splash screen and every later view, and every
+ * join, reuses the runtime.
+ *
+ * The runtime has to be created on the main thread from an activity, so instead of a background
+ * thread the pre-warm waits for the main thread to go idle, after the splash screen has drawn.
+ */
+public class ConferenceService {
+    private final URL mServerUrl;
+
+    private boolean mIsPrewarmScheduled;
+
+    public ConferenceService(URL serverUrl) {
+        mServerUrl = serverUrl;
+    }
+
+    /**
+     * Boots the Jitsi runtime once the main thread is idle. Only does anything the first time it
+     * is called. Must be called on the main thread.
+     */
+    public void prewarm(Activity activity) {
+        if (mIsPrewarmScheduled) {
+            return;
+        }
+        mIsPrewarmScheduled = true;
+
+        JitsiMeet.setDefaultConferenceOptions(new JitsiMeetConferenceOptions.Builder()
+                .setServerURL(mServerUrl)
+                .setWelcomePageEnabled(false)
+                .build());
+
+        Looper.myQueue().addIdleHandler(() -> {
+            if (activity.isFinishing() || activity.isDestroyed()) {
+                // Let the homescreen boot it instead
+                mIsPrewarmScheduled = false;
+                return false;
+            }
+
+            long startMs = SystemClock.elapsedRealtime();
+            // The runtime outlives the view, so it can be dropped right away
+            new JitsiMeetView(activity).dispose();
+            Timber.i("Pre-warmed Jitsi in %d ms", SystemClock.elapsedRealtime() - startMs);
+            return false;
+        });
+    }
+
+    /**
+     * @return options for joining the room at the given quality, on top of the defaults set by
+     * {@link #prewarm(Activity)}
+     */
+    public JitsiMeetConferenceOptions getConferenceOptions(String jitsiRoom, ConferenceQualityProfile profile) {
+        return profile.applyTo(new JitsiMeetConferenceOptions.Builder()
+                .setServerURL(mServerUrl)
+                .setRoom(jitsiRoom)
+                .setAudioMuted(false)
+                .setWelcomePageEnabled(false))
+                .build();
+    }
+}
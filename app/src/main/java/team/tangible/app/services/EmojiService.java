@@ -8,44 +8,81 @@ import android.view.MotionEvent;
 import android.view.View;
 import android.view.WindowManager;
 
+import com.amrdeveloper.reactbutton.ReactButton;
+import com.amrdeveloper.reactbutton.Reaction;
+
 import java.util.Objects;
 import java.util.function.Consumer;
 
 import io.reactivex.Observable;
 import io.reactivex.disposables.Disposable;
+import team.tangible.app.R;
+import team.tangible.app.services.ble.InteractionFrameTable;
+import team.tangible.app.services.ble.TangibleInteraction;
 import timber.log.Timber;
 
 import static team.tangible.app.utils.FloatUtils.inRange;
 
-    public class EmojiService extends GestureDetector.SimpleOnGestureListener {
+    public class EmojiService extends GestureDetector.SimpleOnGestureListener implements ReactButton.OnReactionChangeListener {
         private DisplayMetrics mDisplayMetrics;
         private OnClickListener mOnClickListener;
 
-        public enum Interaction {
-            UNKNOWN("UNKNOWN"),
+        public enum Interaction implements TangibleInteraction {
+            UNKNOWN("UNKNOWN", 0, null),
 
             /* EMOJI CODES */
-            HEART_EYES("LEHE"),
-            HEART("LEHT"),
-            KISS("LEKI"),
-            HAND_WAVE("LEHW"),
-            GIGGLE("LEGI"),
-            SAD("LESA"),
-            ANGRY("LEAN"),
-            CRAZY_FACE("LECF"),
-            CONFETTI("LECO"),
-            STAR("LEST");
+            HEART_EYES("LEHE", R.drawable.heart_eyes, "heart-eyes.gif"),
+            HEART("LEHT", R.drawable.heart, "heart.gif"),
+            KISS("LEKI", R.drawable.kiss, "kiss.gif"),
+            HAND_WAVE("LEHW", R.drawable.hand_wave, "hand-wave.gif"),
+            GIGGLE("LEGI", R.drawable.giggle, "giggle.gif"),
+            SAD("LESA", R.drawable.sad_face, "sad-face.gif"),
+            ANGRY("LEAN", R.drawable.angry_face, "angry-face.gif"),
+            CRAZY_FACE("LECF", R.drawable.crazy_face, "crazy-face.gif"),
+            CONFETTI("LECO", R.drawable.confetti, "confetti.gif"),
+            STAR("LEST", R.drawable.star, "star.gif");
+
 
+            private static final InteractionFrameTable<Interaction> FRAME_TABLE = new InteractionFrameTable<>(values());
 
             private final String mBleCode;
+            private final int mIconResId;
+            private final String mAnimationAssetName;
 
-            Interaction(String bleCode) {
+            Interaction(String bleCode, int iconResId, String animationAssetName) {
                 this.mBleCode = bleCode;
+                this.mIconResId = iconResId;
+                this.mAnimationAssetName = animationAssetName;
+            }
+
+            public static InteractionFrameTable<Interaction> getFrameTable() {
+                return FRAME_TABLE;
             }
 
+            @Override
             public String getBleCode() {
                 return mBleCode;
             }
+
+            @Override
+            public byte[] getFrame() {
+                return FRAME_TABLE.getFrame(this);
+            }
+
+            /**
+             * @return the still image's drawable resource, or 0 for {@link #UNKNOWN}
+             */
+            public int getIconResId() {
+                return mIconResId;
+            }
+
+            /**
+             * @return the animation's file name under the emoji assets directory, or null for
+             * {@link #UNKNOWN}
+             */
+            public String getAnimationAssetName() {
+                return mAnimationAssetName;
+            }
         }
 
         public interface OnClickListener {
@@ -62,5 +99,24 @@ import static team.tangible.app.utils.FloatUtils.inRange;
             mOnClickListener = onClickListener;
         }
 
+        /**
+         * Reports the reaction picked on a {@link ReactButton} whose react types are
+         * {@link Interaction} names
+         */
+        @Override
+        public void onReactionChange(Reaction reaction) {
+            Interaction interaction;
+            try {
+                interaction = Interaction.valueOf(reaction.getReactType());
+            } catch (IllegalArgumentException exception) {
+                Timber.w("Unknown reaction %s", reaction.getReactType());
+                interaction = Interaction.UNKNOWN;
+            }
+
+            if (mOnClickListener != null) {
+                mOnClickListener.onClick(interaction);
+            }
+        }
+
     }
 
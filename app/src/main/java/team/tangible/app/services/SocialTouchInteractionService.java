@@ -2,10 +2,12 @@ package team.tangible.app.services;
 
 import android.app.Activity;
 import android.content.Context;
+import android.os.SystemClock;
 import android.util.DisplayMetrics;
 import android.util.Log;
 import android.view.GestureDetector;
 import android.view.MotionEvent;
+import android.view.ViewConfiguration;
 import android.view.WindowManager;
 
 import java.util.Objects;
@@ -13,6 +15,13 @@ import java.util.function.Consumer;
 
 import io.reactivex.Observable;
 import io.reactivex.disposables.Disposable;
+import team.tangible.app.services.ble.InteractionFrameTable;
+import team.tangible.app.services.ble.TangibleFrameCodec;
+import team.tangible.app.services.ble.TangibleInteraction;
+import team.tangible.app.services.touch.InteractionZoneTable;
+import team.tangible.app.services.touch.InteractionZoneTable.GestureType;
+import team.tangible.app.utils.InteractionLatencyTracer;
+import team.tangible.app.utils.InteractionLatencyTracer.Stage;
 import timber.log.Timber;
 
 import static team.tangible.app.utils.FloatUtils.inRange;
@@ -20,8 +29,11 @@ import static team.tangible.app.utils.FloatUtils.inRange;
 public class SocialTouchInteractionService extends GestureDetector.SimpleOnGestureListener {
     private DisplayMetrics mDisplayMetrics;
     private OnInteractionListener mOnInteractionListener;
+    private final InteractionZoneTable mInteractionZoneTable;
+    private final float mMaximumFlingVelocity;
+    private final InteractionLatencyTracer mLatencyTracer;
 
-    public enum Interaction {
+    public enum Interaction implements TangibleInteraction {
         UNKNOWN("UNKNOWN"),
 
         /* FLING */
@@ -46,25 +58,49 @@ public class SocialTouchInteractionService extends GestureDetector.SimpleOnGestu
         LONG_TOP_LEFT("LPTL"),
         LONG_FRONT_LEFT("LPFL");
 
+        private static final InteractionFrameTable<Interaction> FRAME_TABLE = new InteractionFrameTable<>(values());
+
         private final String mBleCode;
 
         Interaction(String bleCode) {
             this.mBleCode = bleCode;
         }
 
+        public static InteractionFrameTable<Interaction> getFrameTable() {
+            return FRAME_TABLE;
+        }
+
+        @Override
         public String getBleCode() {
             return mBleCode;
         }
+
+        @Override
+        public byte[] getFrame() {
+            return FRAME_TABLE.getFrame(this);
+        }
     }
 
     public interface OnInteractionListener {
-        void onInteraction(Interaction interaction);
+        /**
+         * @param intensity how strongly to play the interaction, see
+         *                  {@link team.tangible.app.services.ble.TangibleFrameCodec#toIntensity(float)}
+         * @param duration  how long to play it for, see
+         *                  {@link team.tangible.app.services.ble.TangibleFrameCodec#toDuration(long)}
+         */
+        void onInteraction(Interaction interaction, int intensity, int duration);
     }
 
-    public SocialTouchInteractionService(Context context) {
+    public SocialTouchInteractionService(Context context, InteractionLatencyTracer latencyTracer) {
+        mLatencyTracer = latencyTracer;
         mDisplayMetrics = new DisplayMetrics();
         ((WindowManager) Objects.requireNonNull(context.getSystemService(Context.WINDOW_SERVICE)))
                 .getDefaultDisplay().getMetrics(mDisplayMetrics);
+
+        mMaximumFlingVelocity = ViewConfiguration.get(context).getScaledMaximumFlingVelocity();
+
+        // Start out covering the whole display until the real touch area has been laid out
+        mInteractionZoneTable = new InteractionZoneTable(mDisplayMetrics.widthPixels, mDisplayMetrics.heightPixels);
     }
 
     public void setOnInteractionListener(OnInteractionListener onInteractionListener) {
@@ -92,83 +128,77 @@ public class SocialTouchInteractionService extends GestureDetector.SimpleOnGestu
 
         //TODO: Color-changing line animation
 
-        mOnInteractionListener.onInteraction(interaction);
+        // A faster fling is felt more strongly, and for as long as the finger took to make it
+        int intensity = TangibleFrameCodec.toIntensity((float) Math.hypot(velocityX, velocityY) / mMaximumFlingVelocity);
+        int duration = TangibleFrameCodec.toDuration(event2.getEventTime() - event1.getEventTime());
+
+        // The trace starts at the down event, the swipe itself is not latency
+        mLatencyTracer.skip(event2.getEventTime() - event1.getEventTime());
+        mLatencyTracer.mark(Stage.GESTURE);
+        mOnInteractionListener.onInteraction(interaction, intensity, duration);
 
         return true;
     }
 
     @Override
     public boolean onDoubleTap(MotionEvent e) {
-        float x = e.getX();
-        float y = e.getY();
-        float width = mDisplayMetrics.widthPixels;
-        float height = mDisplayMetrics.heightPixels;
-        Actuator actuator = getActuator(x, y, width, height);
-        Interaction interaction;
-
-        if (actuator == Actuator.BACK_RIGHT) {
-            interaction = Interaction.DOUBLE_BACK_RIGHT;
-        } else if (actuator == Actuator.TOP_RIGHT) {
-            interaction = Interaction.DOUBLE_TOP_RIGHT;
-        } else if (actuator == Actuator.FRONT_RIGHT) {
-            interaction = Interaction.DOUBLE_FRONT_RIGHT;
-        } else if (actuator == Actuator.BACK_LEFT) {
-            interaction = Interaction.DOUBLE_BACK_LEFT;
-        } else if (actuator == Actuator.TOP_LEFT) {
-            interaction = Interaction.DOUBLE_TOP_LEFT;
-        } else if (actuator == Actuator.FRONT_LEFT) {
-            interaction = Interaction.DOUBLE_FRONT_LEFT;
-        } else{
-            interaction = Interaction.UNKNOWN;
-            return false;
-        }
+        int zone = mInteractionZoneTable.getZone(e.getX(), e.getY());
+        Interaction interaction = mInteractionZoneTable.getInteraction(GestureType.DOUBLE_TAP, zone);
 
         //TODO: Fluttering/rising hearts animation
 
-        mOnInteractionListener.onInteraction(interaction);
+        // The event is the first tap's, so the duration follows the rhythm of the two taps
+        int intensity = TangibleFrameCodec.toIntensity(e.getPressure());
+        int duration = TangibleFrameCodec.toDuration(SystemClock.uptimeMillis() - e.getEventTime());
+
+        mLatencyTracer.mark(Stage.GESTURE);
+        mOnInteractionListener.onInteraction(interaction, intensity, duration);
         return true;
     }
 
     @Override
     public void onLongPress(MotionEvent e) {
-        float x = e.getX();
-        float y = e.getY();
-        float width = mDisplayMetrics.widthPixels;
-        float height = mDisplayMetrics.heightPixels;
-        Actuator actuator = getActuator(x, y, width, height);
-        Interaction interaction;
+        int zone = mInteractionZoneTable.getZone(e.getX(), e.getY());
+        Interaction interaction = mInteractionZoneTable.getInteraction(GestureType.LONG_PRESS, zone);
 
-        if (actuator == Actuator.BACK_RIGHT) {
-            interaction = Interaction.LONG_BACK_RIGHT;
-        } else if (actuator == Actuator.TOP_RIGHT) {
-            interaction = Interaction.LONG_TOP_RIGHT;
-        } else if (actuator == Actuator.FRONT_RIGHT) {
-            interaction = Interaction.LONG_FRONT_RIGHT;
-        } else if (actuator == Actuator.BACK_LEFT) {
-            interaction = Interaction.LONG_BACK_LEFT;
-        } else if (actuator == Actuator.TOP_LEFT) {
-            interaction = Interaction.LONG_TOP_LEFT;
-        } else if (actuator == Actuator.FRONT_LEFT) {
-            interaction = Interaction.LONG_FRONT_LEFT;
-        } else{
-            interaction = Interaction.UNKNOWN;
-            return;
-        }
+        // How long the press will last is not known yet when it is recognized
+        int intensity = TangibleFrameCodec.toIntensity(e.getPressure());
 
-        mOnInteractionListener.onInteraction(interaction);
+        // Nor is waiting out the long press timeout
+        mLatencyTracer.skip(ViewConfiguration.getLongPressTimeout());
+        mLatencyTracer.mark(Stage.GESTURE);
+        mOnInteractionListener.onInteraction(interaction, intensity, TangibleFrameCodec.DEFAULT_DURATION);
 
         //TODO: growing heart animation at point of long press
 
     }
 
-    /** Finds the correct actuator for single tap, double tap, and long press
+    /**
+     * Fits the actuator zones to the view the gestures are detected on. Cheap to call on every
+     * layout pass, the zones are only recomputed when the size actually changes.
+     */
+    public void setTouchAreaSize(float width, float height) {
+        if (mInteractionZoneTable.setSize(width, height)) {
+            Timber.d("Interaction zones resized to %.0fx%.0f", width, height);
+        }
+    }
+
+    /**
+     * The zones gestures are classified into, for other touch handling on the same view to share
+     */
+    public InteractionZoneTable getInteractionZoneTable() {
+        return mInteractionZoneTable;
+    }
+
+    /** Finds the correct actuator for single tap, double tap, and long press. Gestures go through
+     * {@link InteractionZoneTable} instead, this remains the reference definition of the zones.
      * @param x the x-coordinate of the tap or press
      * @param y the y-coordinate of the tap or press
      * @param width the width (px) of the current screen
      * @param height the height (px) of the current screen
      * */
 
-    public Actuator getActuator(float x, float y, float width, float height){
+    public static Actuator getActuator(float x, float y, float width, float height){
         if(inRange(x, 0, width/2)){
             if(inRange(y,  0, height/3)) return Actuator.BACK_LEFT;
             if(inRange(y, height/3, 2*height/3)) return Actuator.TOP_LEFT;
@@ -1,31 +1,211 @@
 package team.tangible.app.services;
 
+import android.bluetooth.BluetoothGattCharacteristic;
 import android.content.SharedPreferences;
+import android.os.ParcelUuid;
 
 import com.polidea.rxandroidble2.RxBleClient;
 import com.polidea.rxandroidble2.RxBleConnection;
+import com.polidea.rxandroidble2.RxBleConnection.RxBleConnectionState;
+import com.polidea.rxandroidble2.scan.ScanFilter;
 import com.polidea.rxandroidble2.scan.ScanResult;
 import com.polidea.rxandroidble2.scan.ScanSettings;
 
 import java.util.Objects;
 import java.util.concurrent.TimeUnit;
 
+import io.reactivex.Completable;
+import io.reactivex.Maybe;
 import io.reactivex.Observable;
 import io.reactivex.Single;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.subjects.PublishSubject;
+import io.reactivex.subjects.Subject;
 import team.tangible.app.Constants;
 import team.tangible.app.results.TangibleAvailabilityResult;
+import team.tangible.app.services.ble.BleDispatcher;
+import team.tangible.app.services.ble.BleLinkFraming;
+import team.tangible.app.services.ble.BleWritePipeline;
+import team.tangible.app.services.ble.ReliableFrameSender;
+import team.tangible.app.services.ble.TangibleEvent;
+import team.tangible.app.services.ble.TangibleFrameCodec;
+import team.tangible.app.services.ble.TangibleInteraction;
+import team.tangible.app.services.ble.UartFrameReassembler;
+import team.tangible.app.utils.InteractionLatencyTracer;
+import team.tangible.app.utils.InteractionLatencyTracer.Stage;
+import team.tangible.app.utils.LatencyHistogram;
 import timber.log.Timber;
 
+import static team.tangible.app.Constants.BluetoothLowEnergy.NordicUARTService.Characteristics;
+import static team.tangible.app.Constants.BluetoothLowEnergy.NordicUARTService.SERVICE_UUID;
 import static team.tangible.app.results.TangibleAvailabilityResult.*;
 
 public class TangibleBleConnectionService {
     private static final long AVAILABILITY_TIMEOUT_MS = 5000;
+
+    /**
+     * How long a sighting of the paired Tangible is trusted without scanning for it again
+     */
+    private static final long AVAILABILITY_CACHE_TTL_MS = 10 * 60 * 1000;
+
     private final RxBleClient mRxBleClient;
     private final SharedPreferences mSharedPreferences;
+    private final TangibleConnectionManager mConnectionManager;
+    private final InteractionLatencyTracer mLatencyTracer;
+    private final BleDispatcher mDispatcher;
+    private final BleWritePipeline mWritePipeline;
+    private final ReliableFrameSender mReliableFrameSender;
+    private volatile boolean mIsReliableDeliveryEnabled;
+    private volatile int mReportedProtocolVersion = TangibleFrameCodec.VERSION_1;
+    private final int mProtocolVersionOverride;
+    private final Subject<TangibleEvent> mEvents = PublishSubject.<TangibleEvent>create().toSerialized();
+    private Disposable mBackgroundAvailabilityCheck;
+    private Single<TangibleAvailabilityResult> mBackgroundAvailabilityResult;
 
-    public TangibleBleConnectionService(RxBleClient rxBleClient, SharedPreferences sharedPreferences) {
+    public TangibleBleConnectionService(RxBleClient rxBleClient, SharedPreferences sharedPreferences,
+                                        TangibleConnectionManager connectionManager,
+                                        InteractionLatencyTracer latencyTracer) {
         mRxBleClient = rxBleClient;
         mSharedPreferences = sharedPreferences;
+        mConnectionManager = connectionManager;
+        mLatencyTracer = latencyTracer;
+        mDispatcher = new BleDispatcher(new DispatchThreadWriter());
+        mWritePipeline = new BleWritePipeline(latencyTracer, mDispatcher.getScheduler());
+        mReliableFrameSender = new ReliableFrameSender(mWritePipeline,
+                Constants.BluetoothLowEnergy.RELIABLE_DELIVERY_WINDOW_SIZE, latencyTracer, mDispatcher.getScheduler());
+        mIsReliableDeliveryEnabled = sharedPreferences.getBoolean(
+                Constants.SharedPreferences.Keys.RELIABLE_DELIVERY_ENABLED, false);
+        mProtocolVersionOverride = sharedPreferences.getInt(
+                Constants.SharedPreferences.Keys.PROTOCOL_VERSION_OVERRIDE, 0);
+    }
+
+    /**
+     * The queue that all outbound frames go through. It is attached to the link for as long as the
+     * shared connection from {@link #getConnection()} is alive.
+     */
+    public BleWritePipeline getWritePipeline() {
+        return mWritePipeline;
+    }
+
+    /**
+     * Whether frames are sent sequenced and retransmitted until acked. Only turn this on for
+     * firmware that acks sequenced frames, otherwise every frame is resent until it is given up on.
+     */
+    public boolean isReliableDeliveryEnabled() {
+        return mIsReliableDeliveryEnabled;
+    }
+
+    public boolean setReliableDeliveryEnabled(boolean isReliableDeliveryEnabled) {
+        if (!isReliableDeliveryEnabled) {
+            mDispatcher.post(mReliableFrameSender::reset);
+        }
+        mIsReliableDeliveryEnabled = isReliableDeliveryEnabled;
+
+        return mSharedPreferences.edit()
+                .putBoolean(Constants.SharedPreferences.Keys.RELIABLE_DELIVERY_ENABLED, isReliableDeliveryEnabled)
+                .commit();
+    }
+
+    /**
+     * The frame format interactions are sent in. Firmware that understands v2 frames says so with
+     * a {@link TangibleEvent.ProtocolVersion} event once connected, until then, and after every
+     * disconnect, frames go out as v1. The {@code PROTOCOL_VERSION_OVERRIDE} preference pins the
+     * version instead, for firmware that does not report one.
+     */
+    public int getProtocolVersion() {
+        return mProtocolVersionOverride != 0 ? mProtocolVersionOverride : mReportedProtocolVersion;
+    }
+
+    /**
+     * Time from sending a frame to its ack, only recorded with reliable delivery on
+     */
+    public LatencyHistogram getAckLatencyHistogram() {
+        return mReliableFrameSender.getLatencyHistogram();
+    }
+
+    /**
+     * Everything the Tangible reports over the TX characteristic. Events only flow while the shared
+     * connection from {@link #getConnection()} is alive, and are delivered on the thread RxAndroidBle
+     * reports notifications on, never the main thread.
+     */
+    public Observable<TangibleEvent> observeEvents() {
+        return mEvents.hide();
+    }
+
+    /**
+     * Writes the interaction at full intensity, for as long as the firmware plays it by default
+     *
+     * @see #writeInteraction(TangibleInteraction, int, int)
+     */
+    public void writeInteraction(TangibleInteraction interaction) {
+        writeInteraction(interaction, TangibleFrameCodec.FULL_INTENSITY, TangibleFrameCodec.DEFAULT_DURATION);
+    }
+
+    /**
+     * Hands the interaction to the BLE dispatch thread, which queues its pre-encoded frame. Meant
+     * to be called from the main thread: the latency trace being built there, if any, is carried
+     * along and ends here. The intensity and duration are only sent to firmware that speaks v2
+     * frames, see {@link #getProtocolVersion()}.
+     */
+    public void writeInteraction(TangibleInteraction interaction, int intensity, int duration) {
+        mDispatcher.dispatchInteraction(interaction, intensity, duration,
+                mLatencyTracer.getCurrentOriginNanos(), mLatencyTracer.getCurrentStageStartNanos());
+        mLatencyTracer.endTrace();
+    }
+
+    /**
+     * Hands the interaction to the BLE dispatch thread like
+     * {@link #writeInteraction(TangibleInteraction, int, int)}, but from any thread and traced
+     * from {@code originNanos} rather than from a touch. For interactions that are played back.
+     */
+    public void writeInteraction(TangibleInteraction interaction, int intensity, int duration, long originNanos) {
+        mDispatcher.dispatchInteraction(interaction, intensity, duration, originNanos, originNanos);
+    }
+
+    /**
+     * Hands a complete frame that is not one of the fixed interactions to the BLE dispatch thread
+     */
+    public void writeFrame(byte[] frame) {
+        mDispatcher.dispatchFrame(frame);
+    }
+
+    /**
+     * Only ever called on the dispatch thread
+     */
+    private boolean enqueueFrame(byte[] frame, long originNanos) {
+        if (mIsReliableDeliveryEnabled) {
+            mReliableFrameSender.send(frame, originNanos);
+            return true;
+        }
+
+        return mWritePipeline.enqueue(frame, originNanos);
+    }
+
+    private class DispatchThreadWriter implements BleDispatcher.Writer {
+        @Override
+        public void writeInteraction(TangibleInteraction interaction, int intensity, int duration,
+                                     long originNanos, long stageStartNanos) {
+            long dispatchedNanos = mLatencyTracer.record(Stage.DISPATCH, originNanos, stageStartNanos);
+
+            byte[] frame = interaction.getFrame();
+            if (frame == null) {
+                return;
+            }
+
+            if (getProtocolVersion() >= TangibleFrameCodec.VERSION_2) {
+                frame = TangibleFrameCodec.encodeV2(frame, intensity, duration);
+            }
+
+            long encodedNanos = mLatencyTracer.record(Stage.ENCODE, originNanos, dispatchedNanos);
+            if (enqueueFrame(frame, originNanos)) {
+                mLatencyTracer.record(Stage.QUEUE, originNanos, encodedNanos);
+            }
+        }
+
+        @Override
+        public void writeFrame(byte[] frame) {
+            enqueueFrame(frame, InteractionLatencyTracer.NO_TRACE);
+        }
     }
 
     public boolean isMacAddressSaved() {
@@ -42,7 +222,24 @@ public class TangibleBleConnectionService {
                 .commit();
     }
 
+    /**
+     * Scans for the paired Tangible in low-latency mode, for when a screen is waiting on the answer
+     */
     public Single<TangibleAvailabilityResult> isTangibleAvailable() {
+        return isTangibleAvailable(ScanSettings.SCAN_MODE_LOW_LATENCY);
+    }
+
+    /**
+     * Scans for the paired Tangible. The scan is filtered by its MAC address so the radio only
+     * reports that one device rather than every advertiser nearby.
+     *
+     * A Tangible that is connected, or being connected to, stops advertising, so it is found by
+     * its connection state instead. This is the usual case right after a connection, while the
+     * link is kept through its grace period or the homescreen is setting it up again.
+     *
+     * @param scanMode one of the {@code ScanSettings.SCAN_MODE_*} constants
+     */
+    public Single<TangibleAvailabilityResult> isTangibleAvailable(int scanMode) {
         if (!areRuntimePermissionsGranted()) {
             return Single.error(new RuntimePermissionsNotGranted());
         }
@@ -53,17 +250,98 @@ public class TangibleBleConnectionService {
 
         String savedMacAddress = getSavedMacAddress();
 
-        return mRxBleClient.scanBleDevices(new ScanSettings.Builder().build()).any(scanResult -> {
+        ScanFilter savedMacAddressFilter = new ScanFilter.Builder().setDeviceAddress(savedMacAddress).build();
+
+        Observable<String> connected = mConnectionManager.observeConnectionState(savedMacAddress)
+                .filter(state -> state == RxBleConnectionState.CONNECTED || state == RxBleConnectionState.CONNECTING)
+                .map(state -> "connection state " + state);
+
+        Observable<String> advertising = scanBleDevices(scanMode, savedMacAddressFilter).filter(scanResult -> {
             // We want to check if the saved MAC address is in the scanned vicinity
             return Objects.equals(scanResult.getBleDevice().getMacAddress(), savedMacAddress);
-        }).map((Boolean wasTangibleFound) -> {
-            return wasTangibleFound ? AVAILABLE : NOT_FOUND;
+        }).map(scanResult -> "scan");
+
+        return Observable.merge(connected, advertising).firstOrError().map(foundBy -> {
+            Timber.i("Found the Tangible by %s", foundBy);
+            return AVAILABLE;
         }).timeout(AVAILABILITY_TIMEOUT_MS, TimeUnit.MILLISECONDS).onErrorReturn(throwable -> {
             Timber.e(throwable);
             return NOT_FOUND;
+        }).doOnSuccess(result -> {
+            if (result == AVAILABLE) {
+                recordTangibleSeen(savedMacAddress);
+            } else {
+                clearTangibleSeen();
+            }
         });
     }
 
+    /**
+     * Answers from what was last observed instead of scanning. Returns {@code AVAILABLE} if the
+     * paired Tangible was seen (found in a scan or connected to) within the last
+     * {@link #AVAILABILITY_CACHE_TTL_MS}, and {@code PENDING} if only a scan can tell.
+     */
+    public TangibleAvailabilityResult getCachedAvailability() {
+        if (!isMacAddressSaved()) {
+            return NOT_PAIRED;
+        }
+
+        String lastSeenMacAddress = mSharedPreferences.getString(Constants.SharedPreferences.Keys.LAST_SEEN_BLE_DEVICE_MAC_ADDRESS, null);
+        long lastSeenTimestampMs = mSharedPreferences.getLong(Constants.SharedPreferences.Keys.LAST_SEEN_BLE_DEVICE_TIMESTAMP_MS, 0);
+        long ageMs = System.currentTimeMillis() - lastSeenTimestampMs;
+
+        if (Objects.equals(lastSeenMacAddress, getSavedMacAddress()) && ageMs >= 0 && ageMs < AVAILABILITY_CACHE_TTL_MS) {
+            return AVAILABLE;
+        }
+
+        return PENDING;
+    }
+
+    /**
+     * Runs {@link #isTangibleAvailable()} detached from any screen so that a navigation made on the
+     * strength of {@link #getCachedAvailability()} still refreshes the cache. Calls made while a
+     * check is already running are ignored. The screen navigated to picks up the outcome with
+     * {@link #takeBackgroundAvailabilityResult()}.
+     */
+    public synchronized void verifyAvailabilityInBackground() {
+        if (mBackgroundAvailabilityCheck != null && !mBackgroundAvailabilityCheck.isDisposed()) {
+            return;
+        }
+
+        // Nobody is waiting on this one, so trade latency for battery
+        mBackgroundAvailabilityResult = isTangibleAvailable(ScanSettings.SCAN_MODE_BALANCED).cache();
+        mBackgroundAvailabilityCheck = mBackgroundAvailabilityResult.subscribe(result -> {
+            Timber.i("Background availability check finished: %s", result);
+        }, throwable -> {
+            Timber.w(throwable, "Background availability check failed");
+        });
+    }
+
+    /**
+     * The outcome of the last {@link #verifyAvailabilityInBackground()}, handed out once so that it
+     * is only reported to the user once. Completes empty if no check was started since.
+     */
+    public synchronized Maybe<TangibleAvailabilityResult> takeBackgroundAvailabilityResult() {
+        Single<TangibleAvailabilityResult> result = mBackgroundAvailabilityResult;
+        mBackgroundAvailabilityResult = null;
+
+        return result != null ? result.toMaybe() : Maybe.empty();
+    }
+
+    private void recordTangibleSeen(String macAddress) {
+        mSharedPreferences.edit()
+                .putString(Constants.SharedPreferences.Keys.LAST_SEEN_BLE_DEVICE_MAC_ADDRESS, macAddress)
+                .putLong(Constants.SharedPreferences.Keys.LAST_SEEN_BLE_DEVICE_TIMESTAMP_MS, System.currentTimeMillis())
+                .apply();
+    }
+
+    private void clearTangibleSeen() {
+        mSharedPreferences.edit()
+                .remove(Constants.SharedPreferences.Keys.LAST_SEEN_BLE_DEVICE_MAC_ADDRESS)
+                .remove(Constants.SharedPreferences.Keys.LAST_SEEN_BLE_DEVICE_TIMESTAMP_MS)
+                .apply();
+    }
+
     public boolean areRuntimePermissionsGranted() {
         return mRxBleClient.isScanRuntimePermissionGranted();
     }
@@ -72,43 +350,123 @@ public class TangibleBleConnectionService {
         return mRxBleClient.getRecommendedScanRuntimePermissions();
     }
 
+    /**
+     * Scans for devices advertising the Nordic UART service in low-latency mode, for pairing
+     */
     public Observable<ScanResult> scanBleDevices() {
-        return mRxBleClient.scanBleDevices(new ScanSettings.Builder().build());
+        ScanFilter uartServiceFilter = new ScanFilter.Builder().setServiceUuid(new ParcelUuid(SERVICE_UUID)).build();
+        return scanBleDevices(ScanSettings.SCAN_MODE_LOW_LATENCY, uartServiceFilter);
+    }
+
+    /**
+     * Filters are matched by the Bluetooth controller where the hardware supports it, so results
+     * that do not match never wake up the app.
+     *
+     * @param scanMode    one of the {@code ScanSettings.SCAN_MODE_*} constants
+     * @param scanFilters devices matching any of the filters are reported. Pass none to report
+     *                    every advertiser.
+     */
+    public Observable<ScanResult> scanBleDevices(int scanMode, ScanFilter... scanFilters) {
+        ScanSettings scanSettings = new ScanSettings.Builder()
+                .setScanMode(scanMode)
+                .setCallbackType(ScanSettings.CALLBACK_TYPE_ALL_MATCHES)
+                .build();
+        return mRxBleClient.scanBleDevices(scanSettings, scanFilters);
     }
 
+    /**
+     * The shared connection to the paired Tangible. Subscribers that arrive while it is up (or
+     * within the grace period after the last one left) get it immediately.
+     */
     public Observable<RxBleConnection> getConnection() {
         if (!isMacAddressSaved()) {
             return Observable.error(new NoPairedTangibleException());
         }
 
         String savedMacAddress = getSavedMacAddress();
-        return mRxBleClient.getBleDevice(savedMacAddress).establishConnection(true);
+        return mConnectionManager.getConnection(savedMacAddress, connections -> connections
+                .flatMapSingle(this::negotiateLinkFraming)
+                .switchMap(connection -> Observable.just(connection).mergeWith(listenForEvents(connection)))
+                .doFinally(() -> mDispatcher.post(() -> {
+                    // The next firmware to connect may be older
+                    mReportedProtocolVersion = TangibleFrameCodec.VERSION_1;
+                    mReliableFrameSender.reset();
+                    mWritePipeline.setConnection(null, null);
+                })));
     }
 
-    public static class NoPairedTangibleException extends Error {}
+    public Observable<RxBleConnectionState> observeConnectionState() {
+        if (!isMacAddressSaved()) {
+            return Observable.error(new NoPairedTangibleException());
+        }
 
-    public static class RuntimePermissionsNotGranted extends Error {}
+        return mConnectionManager.observeConnectionState(getSavedMacAddress());
+    }
+
+    /**
+     * Raises the MTU and looks up the RX characteristic so that the write pipeline can size its
+     * writes for this link, switches RX to write without response where the peripheral allows it,
+     * then attaches the pipeline to the connection. Neither step is fatal: without them the link
+     * simply keeps the default 20 byte payload and writes with response.
+     */
+    private Single<RxBleConnection> negotiateLinkFraming(RxBleConnection connection) {
+        Single<Integer> mtu = connection.requestMtu(BleLinkFraming.REQUESTED_MTU).onErrorReturn(throwable -> {
+            Timber.w(throwable, "MTU negotiation failed");
+            return connection.getMtu();
+        });
+
+        Single<BleLinkFraming> framing = mtu.flatMap(negotiatedMtu -> connection.getCharacteristic(Characteristics.RX)
+                .map(rxCharacteristic -> new BleLinkFraming(negotiatedMtu, rxCharacteristic))
+                .onErrorReturn(throwable -> {
+                    Timber.w(throwable, "Failed to discover the RX characteristic");
+                    return new BleLinkFraming(negotiatedMtu, null);
+                }));
 
-    public byte[] getTangibleInteractionMessageWithCrc(SocialTouchInteractionService.Interaction interaction) {
-        return appendCrc(("!" + interaction.getBleCode()).getBytes());
+        return framing.map(negotiatedFraming -> {
+            if (negotiatedFraming.isWriteWithoutResponseSupported()) {
+                // Frames carry their own checksum, so waiting for a response per write buys nothing
+                negotiatedFraming.getRxCharacteristic().setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+            }
+
+            Timber.i("Negotiated %s", negotiatedFraming);
+            recordTangibleSeen(getSavedMacAddress());
+            mDispatcher.post(() -> mWritePipeline.setConnection(connection, negotiatedFraming));
+            return connection;
+        });
     }
 
     /**
-     * Source: https://github.com/ZoneTangible/Bluefruit_LE_Connect_Android_V2/blob/97cb02e1b5d8c90e7ab1bf68548afbeb39ba5096/app/src/main/java/com/adafruit/bluefruit/le/connect/ble/central/BlePeripheralUart.java#L261-L275
+     * Reassembles the TX notification stream into frames and publishes them as events. Failing to
+     * set up notifications only costs the events, so it does not take the connection down.
      */
-    private byte[] appendCrc(byte[] data) {
-        // Calculate checksum
-        byte checksum = 0;
-        for (byte aData : data) {
-            checksum += aData;
-        }
-        checksum = (byte) (~checksum);       // Invert
+    private Completable listenForEvents(RxBleConnection connection) {
+        UartFrameReassembler reassembler = new UartFrameReassembler((buffer, offset) -> {
+            TangibleEvent event = TangibleEvent.parse(TangibleFrameCodec.decode(buffer, offset, TangibleFrameCodec.FRAME_LENGTH));
+            Timber.d("Received %s from BLE device", event);
+
+            if (event instanceof TangibleEvent.Ack) {
+                int sequenceNumber = ((TangibleEvent.Ack) event).getSequenceNumber();
+                mDispatcher.post(() -> mReliableFrameSender.onAck(sequenceNumber));
+            } else if (event instanceof TangibleEvent.ProtocolVersion) {
+                int version = ((TangibleEvent.ProtocolVersion) event).getVersion();
+                mReportedProtocolVersion = Math.max(TangibleFrameCodec.VERSION_1,
+                        Math.min(TangibleFrameCodec.VERSION_2, version));
+                Timber.i("Tangible speaks frame format v%d, sending v%d", version, getProtocolVersion());
+            }
 
-        // Add crc to data
-        byte[] dataCrc = new byte[data.length + 1];
-        System.arraycopy(data, 0, dataCrc, 0, data.length);
-        dataCrc[data.length] = checksum;
+            mEvents.onNext(event);
+        });
 
-        return dataCrc;
+        return connection.setupNotification(Characteristics.TX)
+                .doOnNext(notifications -> Timber.i("Listening for TX notifications"))
+                .flatMap(notifications -> notifications)
+                .doOnNext(reassembler::append)
+                .ignoreElements()
+                .doOnError(throwable -> Timber.w(throwable, "TX notifications stopped"))
+                .onErrorComplete();
     }
+
+    public static class NoPairedTangibleException extends Error {}
+
+    public static class RuntimePermissionsNotGranted extends Error {}
 }
@@ -0,0 +1,77 @@
+package team.tangible.app.services;
+
+import com.polidea.rxandroidble2.RxBleClient;
+import com.polidea.rxandroidble2.RxBleConnection;
+import com.polidea.rxandroidble2.RxBleConnection.RxBleConnectionState;
+import com.polidea.rxandroidble2.RxBleDevice;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Observable;
+import io.reactivex.ObservableTransformer;
+import timber.log.Timber;
+
+/**
+ * Owns the one BLE connection the app holds to the Tangible. Every subscriber to
+ * {@link #getConnection(String, ObservableTransformer)} shares the same link, and the link is only
+ * torn down once nobody has been subscribed for the grace period. This way an activity going
+ * through onStop/onStart (rotation, backgrounding, moving between screens) picks the existing
+ * connection back up instead of paying for a fresh autoConnect.
+ *
+ * This must be application-scoped for the sharing to mean anything.
+ */
+public class TangibleConnectionManager {
+    private final RxBleClient mRxBleClient;
+    private final long mGracePeriodMs;
+
+    private String mSharedConnectionMacAddress;
+    private Observable<RxBleConnection> mSharedConnection;
+
+    /**
+     * @param gracePeriodMs how long the link stays up after the last subscriber disposes
+     */
+    public TangibleConnectionManager(RxBleClient rxBleClient, long gracePeriodMs) {
+        mRxBleClient = rxBleClient;
+        mGracePeriodMs = gracePeriodMs;
+    }
+
+    /**
+     * @param macAddress      the device to connect to. Asking for a different device than the one
+     *                        currently shared starts a separate connection for it.
+     * @param connectionSetup applied once per physical connection, before it is handed to any
+     *                        subscriber. Late subscribers get the already set-up connection.
+     */
+    public synchronized Observable<RxBleConnection> getConnection(
+            String macAddress,
+            ObservableTransformer<RxBleConnection, RxBleConnection> connectionSetup) {
+
+        if (mSharedConnection == null || !Objects.equals(mSharedConnectionMacAddress, macAddress)) {
+            Timber.i("Creating shared BLE connection to %s", macAddress);
+
+            mSharedConnectionMacAddress = macAddress;
+            mSharedConnection = mRxBleClient.getBleDevice(macAddress)
+                    .establishConnection(true)
+                    .compose(connectionSetup)
+                    .doOnDispose(() -> Timber.i("Grace period elapsed, releasing BLE connection to %s", macAddress))
+                    .replay(1)
+                    .refCount(mGracePeriodMs, TimeUnit.MILLISECONDS);
+        }
+
+        return mSharedConnection;
+    }
+
+    /**
+     * Emits the current connection state of the device followed by every transition
+     */
+    public Observable<RxBleConnectionState> observeConnectionState(String macAddress) {
+        RxBleDevice bleDevice = mRxBleClient.getBleDevice(macAddress);
+        return bleDevice.observeConnectionStateChanges()
+                .startWith(bleDevice.getConnectionState())
+                .distinctUntilChanged();
+    }
+
+    public long getGracePeriodMs() {
+        return mGracePeriodMs;
+    }
+}
@@ -1,9 +1,20 @@
 package team.tangible.app.services;
 
 import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.ListenerRegistration;
 
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Provider;
+
+import io.reactivex.Observable;
 import io.reactivex.Single;
+import team.tangible.app.Constants;
+import team.tangible.app.services.data.DocumentCache;
+import team.tangible.app.services.data.SingleFlightCache;
 import team.tangible.app.services.models.DataRecord;
 import team.tangible.app.services.models.RoomDocument;
 import team.tangible.app.services.models.User;
@@ -11,48 +22,187 @@ import team.tangible.app.services.models.UserDocument;
 import timber.log.Timber;
 
 public class TangibleDataService {
-    private final FirebaseFirestore mFirebaseFirestore;
+    private static final String ROOM_JITSI_ROOM_FIELD = "jitsiRoom";
+
+    /**
+     * Copy of the room's {@link #ROOM_JITSI_ROOM_FIELD} kept on the user document by the server
+     */
+    private static final String USER_JITSI_ROOM_FIELD = "jitsiRoom";
+
+    private final Provider<FirebaseFirestore> mFirebaseFirestoreProvider;
     private final AuthenticationService mAuthenticationService;
+    private final DocumentCache mDocumentCache;
+    private final boolean mIsDenormalizedRoomResolutionEnabled;
 
-    public TangibleDataService(FirebaseFirestore firebaseFirestore, AuthenticationService authenticationService) {
-        mFirebaseFirestore = firebaseFirestore;
+    private final SingleFlightCache<DataRecord<UserDocument>> mUserDocuments =
+            new SingleFlightCache<>(Constants.Firebase.Firestore.DOCUMENT_READ_CACHE_SIZE);
+    private final SingleFlightCache<DataRecord<RoomDocument>> mRoomDocuments =
+            new SingleFlightCache<>(Constants.Firebase.Firestore.DOCUMENT_READ_CACHE_SIZE);
+
+    private String mCurrentUserRoomUserUid;
+    private Observable<DataRecord<RoomDocument>> mCurrentUserRoom;
+
+    public TangibleDataService(Provider<FirebaseFirestore> firebaseFirestoreProvider, AuthenticationService authenticationService,
+                               DocumentCache documentCache, boolean isDenormalizedRoomResolutionEnabled) {
+        mFirebaseFirestoreProvider = firebaseFirestoreProvider;
         mAuthenticationService = authenticationService;
+        mDocumentCache = documentCache;
+        mIsDenormalizedRoomResolutionEnabled = isDenormalizedRoomResolutionEnabled;
     }
 
+    /**
+     * Requests made while the same document is already being read share that read, and recent
+     * results are reused until a snapshot listener reports that the document changed
+     */
     public Single<DataRecord<UserDocument>> getCurrentUserDocument() {
-        return Single.create(emitter -> {
+        return Single.defer(() -> {
             User user = mAuthenticationService.getUser();
-            mFirebaseFirestore.collection("users")
-                    .document(user.getUserUid())
-                    .get()
-                    .addOnSuccessListener(documentSnapshot -> {
-                        DocumentReference roomReference = documentSnapshot.getDocumentReference("room");
-
-                        if (roomReference == null) {
-                            emitter.onError(new NullPointerException("room reference is null"));
-                            return;
-                        }
-
-                        String roomId = roomReference.getId();
-                        UserDocument userDocument = new UserDocument(roomId);
-                        emitter.onSuccess(new DataRecord<>(user.getUserUid(), /* resourcePath: */ null, userDocument));
-                    })
-                    .addOnFailureListener(exception -> {
-                        Timber.e(exception);
-                        emitter.onError(exception);
-                    });
+            String path = "users/" + user.getUserUid();
+            return mUserDocuments.get(path, () -> readDocument(path).map(TangibleDataService::toUserRecord));
         });
     }
 
+    /**
+     * Shares and reuses reads like {@link #getCurrentUserDocument()}
+     */
     public Single<DataRecord<RoomDocument>> getRoom(String roomId) {
+        String path = "rooms/" + roomId;
+        return mRoomDocuments.get(path, () -> readDocument(path).map(TangibleDataService::toRoomRecord));
+    }
+
+    /**
+     * @return how many document reads were answered without going to Firestore
+     */
+    public long getDocumentCacheHitCount() {
+        return mUserDocuments.getHitCount() + mRoomDocuments.getHitCount();
+    }
+
+    /**
+     * @return how many document reads went to Firestore
+     */
+    public long getDocumentCacheMissCount() {
+        return mUserDocuments.getMissCount() + mRoomDocuments.getMissCount();
+    }
+
+    /**
+     * @return how many document reads joined one that was already in flight
+     */
+    public long getCoalescedDocumentReadCount() {
+        return mUserDocuments.getCoalescedCount() + mRoomDocuments.getCoalescedCount();
+    }
+
+    /**
+     * Emits the current user's room straight away from the local cache when there is a fresh
+     * copy, then again whenever Firestore reports that the user moved to a different room or the
+     * room's Jitsi room changed. Realtime listeners on {@code users/{uid}} and
+     * {@code rooms/{roomId}} replace the one-shot reads, and every update is written back to the
+     * cache for the next launch.
+     *
+     * The listeners are shared by all subscribers and stay registered for
+     * {@link Constants.Firebase.Firestore#LISTENER_GRACE_PERIOD_MS} after the last one leaves.
+     */
+    public synchronized Observable<DataRecord<RoomDocument>> observeCurrentUserRoom() {
+        String userUid;
+        try {
+            userUid = mAuthenticationService.getUser().getUserUid();
+        } catch (AuthenticationService.AuthenticationError error) {
+            return Observable.error(error);
+        }
+
+        if (mCurrentUserRoom == null || !userUid.equals(mCurrentUserRoomUserUid)) {
+            Observable<DataRecord<RoomDocument>> liveRoom = observeUserDocument(userUid)
+                    .distinctUntilChanged((previous, next) -> previous.getData().getRoomId().equals(next.getData().getRoomId()))
+                    .switchMap(this::resolveRoom);
+
+            DataRecord<RoomDocument> cachedRoom = getCachedCurrentUserRoom(userUid);
+            if (cachedRoom != null) {
+                Timber.i("Serving cached jitsiRoom %s", cachedRoom.getData().getJitsiRoom());
+                liveRoom = liveRoom.startWith(cachedRoom);
+            }
+
+            mCurrentUserRoomUserUid = userUid;
+            mCurrentUserRoom = liveRoom
+                    .distinctUntilChanged((previous, next) -> Objects.equals(previous.getId(), next.getId())
+                            && Objects.equals(previous.getData().getJitsiRoom(), next.getData().getJitsiRoom()))
+                    .replay(1)
+                    .refCount(Constants.Firebase.Firestore.LISTENER_GRACE_PERIOD_MS, TimeUnit.MILLISECONDS);
+        }
+
+        return mCurrentUserRoom;
+    }
+
+    /**
+     * Registers the room listeners now, so that by the time a screen observes the current user's
+     * room it has usually been resolved. Only call this once the user is logged in.
+     */
+    public void prefetchCurrentUserRoom() {
+        observeCurrentUserRoom().take(1).subscribe(dataRecord -> {
+            Timber.i("Prefetched jitsiRoom %s", dataRecord.getData().getJitsiRoom());
+        }, throwable -> {
+            Timber.w(throwable, "Failed to prefetch the current user's room");
+        });
+    }
+
+    /**
+     * With denormalized resolution on, the {@code jitsiRoom} stored on the user document is
+     * emitted as soon as the user document arrives, so starting a call takes one read rather than
+     * two, but only when the {@link DocumentCache} holds the same value for the same room. A copy
+     * that cannot be confirmed that way, as on a first launch or once the cache has expired, is
+     * never emitted: the room document is waited for instead, so a stale copy cannot start a call
+     * in the wrong room.
+     *
+     * The copy is only read here. Keeping it up to date is left to the server, which is why the
+     * mode is off unless {@link Constants.Firebase.Firestore#DENORMALIZED_ROOM_RESOLUTION_ENABLED}
+     * is set.
+     *
+     * Without a denormalized value, or with the mode off, this is the plain two-hop resolution.
+     */
+    private Observable<DataRecord<RoomDocument>> resolveRoom(DataRecord<UserDocument> userRecord) {
+        String roomId = userRecord.getData().getRoomId();
+        String denormalizedJitsiRoom = userRecord.getData().getJitsiRoom();
+        Observable<DataRecord<RoomDocument>> roomDocument = observeRoomDocument(roomId);
+
+        if (!mIsDenormalizedRoomResolutionEnabled || denormalizedJitsiRoom == null) {
+            return roomDocument;
+        }
+
+        return Observable.defer(() -> {
+            DataRecord<RoomDocument> cachedRoom = mDocumentCache.getRoomDocument(roomId, System.currentTimeMillis());
+            if (cachedRoom == null || !denormalizedJitsiRoom.equals(cachedRoom.getData().getJitsiRoom())) {
+                Timber.i("Denormalized jitsiRoom %s is unconfirmed, waiting for the room document", denormalizedJitsiRoom);
+                return roomDocument;
+            }
+
+            return roomDocument.startWith(new DataRecord<>(roomId, "rooms/" + roomId, new RoomDocument(denormalizedJitsiRoom)));
+        });
+    }
+
+    private DataRecord<RoomDocument> getCachedCurrentUserRoom(String userUid) {
+        long nowMs = System.currentTimeMillis();
+
+        DataRecord<UserDocument> cachedUser = mDocumentCache.getUserDocument(userUid, nowMs);
+        return cachedUser != null ? mDocumentCache.getRoomDocument(cachedUser.getData().getRoomId(), nowMs) : null;
+    }
+
+    private Observable<DataRecord<UserDocument>> observeUserDocument(String userUid) {
+        return observeDocument(mFirebaseFirestoreProvider.get().collection("users").document(userUid))
+                .map(TangibleDataService::toUserRecord)
+                .doOnNext(userRecord -> mUserDocuments.invalidate("users/" + userUid))
+                .doOnNext(userRecord -> mDocumentCache.putUserDocument(userRecord, System.currentTimeMillis()));
+    }
+
+    private Observable<DataRecord<RoomDocument>> observeRoomDocument(String roomId) {
+        return observeDocument(mFirebaseFirestoreProvider.get().collection("rooms").document(roomId))
+                .map(TangibleDataService::toRoomRecord)
+                .doOnNext(roomRecord -> mRoomDocuments.invalidate("rooms/" + roomId))
+                .doOnNext(roomRecord -> mDocumentCache.putRoomDocument(roomRecord, System.currentTimeMillis()));
+    }
+
+    private Single<DocumentSnapshot> readDocument(String path) {
         return Single.create(emitter -> {
-            mFirebaseFirestore.collection("rooms")
-                    .document(roomId)
+            mFirebaseFirestoreProvider.get().document(path)
                     .get()
-                    .addOnSuccessListener(documentSnapshot -> {
-                        RoomDocument roomDocument = documentSnapshot.toObject(RoomDocument.class);
-                        emitter.onSuccess(new DataRecord<>(documentSnapshot.getId(), documentSnapshot.getReference().getPath(), roomDocument));
-                    })
+                    .addOnSuccessListener(emitter::onSuccess)
                     .addOnFailureListener(exception -> {
                         Timber.e(exception);
                         emitter.onError(exception);
@@ -60,11 +210,34 @@ public class TangibleDataService {
         });
     }
 
-
-    public Single<DataRecord<RoomDocument>> getCurrentUserRoom() {
-        return getCurrentUserDocument().flatMap((DataRecord<UserDocument> dataRecord) -> {
-            String roomId = dataRecord.getData().getRoomId();
-            return getRoom(roomId);
+    private static Observable<DocumentSnapshot> observeDocument(DocumentReference documentReference) {
+        return Observable.create(emitter -> {
+            ListenerRegistration listenerRegistration = documentReference.addSnapshotListener((documentSnapshot, exception) -> {
+                if (exception != null) {
+                    Timber.e(exception);
+                    emitter.onError(exception);
+                } else if (documentSnapshot != null && documentSnapshot.exists()) {
+                    emitter.onNext(documentSnapshot);
+                }
+            });
+            emitter.setCancellable(listenerRegistration::remove);
         });
     }
+
+    private static DataRecord<UserDocument> toUserRecord(DocumentSnapshot documentSnapshot) {
+        DocumentReference roomReference = documentSnapshot.getDocumentReference("room");
+
+        if (roomReference == null) {
+            throw new NullPointerException("room reference is null");
+        }
+
+        UserDocument userDocument = new UserDocument(roomReference.getId(), documentSnapshot.getString(USER_JITSI_ROOM_FIELD));
+        return new DataRecord<>(documentSnapshot.getId(), /* resourcePath: */ null, userDocument);
+    }
+
+    private static DataRecord<RoomDocument> toRoomRecord(DocumentSnapshot documentSnapshot) {
+        // Read the field directly: RoomDocument has no no-arg constructor for toObject() to use
+        RoomDocument roomDocument = new RoomDocument(documentSnapshot.getString(ROOM_JITSI_ROOM_FIELD));
+        return new DataRecord<>(documentSnapshot.getId(), documentSnapshot.getReference().getPath(), roomDocument);
+    }
 }
@@ -0,0 +1,137 @@
+package team.tangible.app.services.ble;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.Process;
+
+import io.reactivex.Scheduler;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * The thread all outbound BLE work runs on: turning interactions into frames, queueing them and
+ * subscribing the writes. The UI thread only hands over the interaction, in a pooled
+ * {@link Message} that carries a pooled {@link PendingInteraction}, so it never waits on BLE work
+ * and a gesture allocates nothing on the way over.
+ */
+public class BleDispatcher implements Handler.Callback {
+    private static final String THREAD_NAME = "TangibleBleDispatch";
+    private static final int MESSAGE_WRITE_INTERACTION = 1;
+    private static final int MESSAGE_WRITE_FRAME = 2;
+    private static final int PENDING_INTERACTION_POOL_SIZE = 16;
+
+    private final Handler mHandler;
+    private final Scheduler mScheduler;
+    private final Writer mWriter;
+
+    private final PendingInteraction[] mPendingInteractionPool = new PendingInteraction[PENDING_INTERACTION_POOL_SIZE];
+    private int mPendingInteractionPoolSize;
+
+    /**
+     * Called on the dispatch thread
+     */
+    public interface Writer {
+        /**
+         * @param intensity       see {@link TangibleFrameCodec#encodeV2(byte[], int, int)}
+         * @param duration        see {@link TangibleFrameCodec#encodeV2(byte[], int, int)}
+         * @param originNanos     the origin of the interaction's latency trace
+         * @param stageStartNanos when the trace was last marked before the handoff
+         */
+        void writeInteraction(TangibleInteraction interaction, int intensity, int duration,
+                              long originNanos, long stageStartNanos);
+
+        void writeFrame(byte[] frame);
+    }
+
+    private static class PendingInteraction {
+        TangibleInteraction mInteraction;
+        int mIntensity;
+        int mDuration;
+        long mOriginNanos;
+        long mStageStartNanos;
+    }
+
+    public BleDispatcher(Writer writer) {
+        HandlerThread handlerThread = new HandlerThread(THREAD_NAME, Process.THREAD_PRIORITY_FOREGROUND);
+        handlerThread.start();
+
+        mHandler = new Handler(handlerThread.getLooper(), this);
+        mScheduler = Schedulers.from(mHandler::post);
+        mWriter = writer;
+    }
+
+    /**
+     * Hands an interaction over to the dispatch thread. Safe to call from any thread.
+     */
+    public void dispatchInteraction(TangibleInteraction interaction, int intensity, int duration,
+                                    long originNanos, long stageStartNanos) {
+        PendingInteraction pendingInteraction = acquirePendingInteraction();
+        pendingInteraction.mInteraction = interaction;
+        pendingInteraction.mIntensity = intensity;
+        pendingInteraction.mDuration = duration;
+        pendingInteraction.mOriginNanos = originNanos;
+        pendingInteraction.mStageStartNanos = stageStartNanos;
+
+        Message.obtain(mHandler, MESSAGE_WRITE_INTERACTION, pendingInteraction).sendToTarget();
+    }
+
+    /**
+     * Hands a complete frame over to the dispatch thread. Safe to call from any thread.
+     */
+    public void dispatchFrame(byte[] frame) {
+        Message.obtain(mHandler, MESSAGE_WRITE_FRAME, frame).sendToTarget();
+    }
+
+    /**
+     * Runs other BLE work, like attaching a new connection, in order with the writes
+     */
+    public void post(Runnable runnable) {
+        mHandler.post(runnable);
+    }
+
+    /**
+     * For observing write results and timers on the dispatch thread
+     */
+    public Scheduler getScheduler() {
+        return mScheduler;
+    }
+
+    @Override
+    public boolean handleMessage(Message message) {
+        switch (message.what) {
+            case MESSAGE_WRITE_INTERACTION:
+                PendingInteraction pendingInteraction = (PendingInteraction) message.obj;
+                mWriter.writeInteraction(pendingInteraction.mInteraction,
+                        pendingInteraction.mIntensity, pendingInteraction.mDuration,
+                        pendingInteraction.mOriginNanos, pendingInteraction.mStageStartNanos);
+                releasePendingInteraction(pendingInteraction);
+                return true;
+
+            case MESSAGE_WRITE_FRAME:
+                mWriter.writeFrame((byte[]) message.obj);
+                return true;
+
+            default:
+                return false;
+        }
+    }
+
+    private synchronized PendingInteraction acquirePendingInteraction() {
+        if (mPendingInteractionPoolSize == 0) {
+            // Only when more interactions are waiting than the pool holds
+            return new PendingInteraction();
+        }
+
+        PendingInteraction pendingInteraction = mPendingInteractionPool[--mPendingInteractionPoolSize];
+        mPendingInteractionPool[mPendingInteractionPoolSize] = null;
+        return pendingInteraction;
+    }
+
+    private synchronized void releasePendingInteraction(PendingInteraction pendingInteraction) {
+        pendingInteraction.mInteraction = null;
+
+        if (mPendingInteractionPoolSize < mPendingInteractionPool.length) {
+            mPendingInteractionPool[mPendingInteractionPoolSize++] = pendingInteraction;
+        }
+    }
+}
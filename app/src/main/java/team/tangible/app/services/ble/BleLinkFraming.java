@@ -0,0 +1,79 @@
+package team.tangible.app.services.ble;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+
+/**
+ * What one write to the RX characteristic can carry on a particular connection. Built once per
+ * connection from the negotiated MTU and the properties the peripheral reports for RX.
+ */
+public class BleLinkFraming {
+    /**
+     * The MTU every BLE link starts with before any negotiation
+     */
+    public static final int DEFAULT_MTU = 23;
+
+    /**
+     * The largest ATT MTU Android will negotiate that still fits in one LE data-length-extended
+     * packet (251 byte PDU minus the 4 byte L2CAP header)
+     */
+    public static final int REQUESTED_MTU = 247;
+
+    private static final int ATT_HEADER_SIZE = 3;
+
+    /**
+     * The largest value a long write will carry, matching the ATT maximum attribute length
+     */
+    private static final int MAX_LONG_WRITE_SIZE = 512;
+
+    private final int mMtu;
+    private final BluetoothGattCharacteristic mRxCharacteristic;
+
+    /**
+     * @param mtu              the negotiated ATT MTU
+     * @param rxCharacteristic the discovered RX characteristic, or null if discovery failed in
+     *                         which case writes fall back to addressing RX by UUID with response
+     */
+    public BleLinkFraming(int mtu, BluetoothGattCharacteristic rxCharacteristic) {
+        mMtu = mtu;
+        mRxCharacteristic = rxCharacteristic;
+    }
+
+    public static BleLinkFraming createDefault() {
+        return new BleLinkFraming(DEFAULT_MTU, null);
+    }
+
+    public int getMtu() {
+        return mMtu;
+    }
+
+    public BluetoothGattCharacteristic getRxCharacteristic() {
+        return mRxCharacteristic;
+    }
+
+    /**
+     * The number of bytes that fit in a single ATT write on this link
+     */
+    public int getMaxPayloadSize() {
+        return mMtu - ATT_HEADER_SIZE;
+    }
+
+    /**
+     * The number of bytes the pipeline may pack into one burst. Anything above
+     * {@link #getMaxPayloadSize()} is sent as a long write split into payload-sized chunks.
+     */
+    public int getMaxWriteSize() {
+        return MAX_LONG_WRITE_SIZE;
+    }
+
+    public boolean isWriteWithoutResponseSupported() {
+        return mRxCharacteristic != null
+                && (mRxCharacteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE) != 0;
+    }
+
+    @Override
+    public String toString() {
+        return "BleLinkFraming{mtu=" + mMtu
+                + ", maxPayloadSize=" + getMaxPayloadSize()
+                + ", writeWithoutResponse=" + isWriteWithoutResponseSupported() + "}";
+    }
+}
@@ -0,0 +1,332 @@
+package team.tangible.app.services.ble;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.os.SystemClock;
+
+import com.polidea.rxandroidble2.RxBleConnection;
+
+import java.util.Arrays;
+import java.util.function.LongSupplier;
+
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.disposables.Disposable;
+import team.tangible.app.utils.InteractionLatencyTracer;
+import timber.log.Timber;
+
+import static team.tangible.app.Constants.BluetoothLowEnergy.NordicUARTService.Characteristics;
+
+/**
+ * The outbound side of the UART link. Interaction frames ({@code !XXXX+CRC}) are queued here
+ * instead of being written straight to the RX characteristic, so that only one write is ever in
+ * flight. Whatever has queued up while a write was in flight is packed into the next write, and
+ * consecutive identical frames arriving within {@link #DEFAULT_COALESCING_WINDOW_MS} of each other
+ * are collapsed into one. How much fits in a write is decided by the connection's
+ * {@link BleLinkFraming}.
+ *
+ * The queue is a fixed-size ring so enqueueing a frame never allocates. Each queued frame also
+ * carries the origin of its latency trace, so the {@link InteractionLatencyTracer} can time the
+ * write stage of every frame, however they end up packed.
+ *
+ * The pipeline is driven from the {@link BleDispatcher} thread, and write results are observed on
+ * the scheduler it is given so that the next write is also started from there. The lock only
+ * keeps the counters consistent for readers on other threads.
+ */
+public class BleWritePipeline {
+    private static final int DEFAULT_MAX_QUEUE_DEPTH = 32;
+    private static final long DEFAULT_COALESCING_WINDOW_MS = 150;
+
+    private final byte[][] mQueuedFrames;
+    private final long[] mQueuedFrameOriginNanos;
+    private final long[] mQueuedFrameQueuedNanos;
+    private int mQueueHead;
+    private int mQueueSize;
+
+    private byte[] mLastAcceptedFrame;
+    private long mLastAcceptedFrameTimeMs;
+
+    private RxBleConnection mConnection;
+    private BleLinkFraming mFraming = BleLinkFraming.createDefault();
+    private Disposable mWriteDisposable;
+    private boolean mIsWriteInFlight;
+
+    private final InteractionLatencyTracer mLatencyTracer;
+    private final Scheduler mCallbackScheduler;
+    private final LongSupplier mClockMs;
+    private final long[] mInFlightFrameOriginNanos;
+    private final long[] mInFlightFrameQueuedNanos;
+
+    private boolean mIsFramePackingEnabled = true;
+    private long mCoalescingWindowMs = DEFAULT_COALESCING_WINDOW_MS;
+
+    private long mEnqueuedFrameCount;
+    private long mDroppedFrameCount;
+    private long mCoalescedFrameCount;
+    private long mWrittenFrameCount;
+    private long mWriteCount;
+    private long mFailedWriteCount;
+
+    private OnWriteErrorListener mOnWriteErrorListener;
+
+    public interface OnWriteErrorListener {
+        void onWriteError(Throwable throwable);
+    }
+
+    /**
+     * @param callbackScheduler where write results are handled and follow-up writes started
+     */
+    public BleWritePipeline(InteractionLatencyTracer latencyTracer, Scheduler callbackScheduler) {
+        this(DEFAULT_MAX_QUEUE_DEPTH, latencyTracer, callbackScheduler);
+    }
+
+    public BleWritePipeline(int maxQueueDepth, InteractionLatencyTracer latencyTracer, Scheduler callbackScheduler) {
+        this(maxQueueDepth, latencyTracer, callbackScheduler, SystemClock::elapsedRealtime);
+    }
+
+    /**
+     * @param clockMs the monotonic clock coalescing is timed on, replaceable for tests
+     */
+    BleWritePipeline(int maxQueueDepth, InteractionLatencyTracer latencyTracer, Scheduler callbackScheduler,
+                     LongSupplier clockMs) {
+        mClockMs = clockMs;
+        mQueuedFrames = new byte[maxQueueDepth][];
+        mQueuedFrameOriginNanos = new long[maxQueueDepth];
+        mQueuedFrameQueuedNanos = new long[maxQueueDepth];
+        mLatencyTracer = latencyTracer;
+        mCallbackScheduler = callbackScheduler;
+        mInFlightFrameOriginNanos = new long[maxQueueDepth];
+        mInFlightFrameQueuedNanos = new long[maxQueueDepth];
+    }
+
+    public synchronized void setOnWriteErrorListener(OnWriteErrorListener onWriteErrorListener) {
+        mOnWriteErrorListener = onWriteErrorListener;
+    }
+
+    /**
+     * Points the pipeline at a (new) connection. Passing {@code null} detaches it, cancelling any
+     * in-flight write and dropping whatever is still queued since it would be stale by the time
+     * the link comes back.
+     *
+     * @param framing what the connection's writes can carry, ignored when detaching
+     */
+    public synchronized void setConnection(RxBleConnection connection, BleLinkFraming framing) {
+        if (mConnection == connection) {
+            return;
+        }
+
+        if (mWriteDisposable != null) {
+            mWriteDisposable.dispose();
+            mWriteDisposable = null;
+        }
+        mIsWriteInFlight = false;
+        mConnection = connection;
+        mFraming = connection != null ? framing : BleLinkFraming.createDefault();
+
+        if (connection == null) {
+            mDroppedFrameCount += mQueueSize;
+            clearQueue();
+            return;
+        }
+
+        drain();
+    }
+
+    /**
+     * Whether several queued frames may share one write. The Bluefruit firmware reads the UART
+     * as a stream and resynchronizes on {@code '!'}, so this is on by default.
+     */
+    public synchronized void setFramePackingEnabled(boolean isFramePackingEnabled) {
+        mIsFramePackingEnabled = isFramePackingEnabled;
+    }
+
+    public synchronized void setCoalescingWindowMs(long coalescingWindowMs) {
+        mCoalescingWindowMs = coalescingWindowMs;
+    }
+
+    /**
+     * Queues a complete frame for writing, untraced
+     *
+     * @see #enqueue(byte[], long)
+     */
+    public boolean enqueue(byte[] frame) {
+        return enqueue(frame, InteractionLatencyTracer.NO_TRACE);
+    }
+
+    /**
+     * Queues a complete frame for writing. The array is not copied, so callers must not modify
+     * it afterwards.
+     *
+     * @param originNanos the origin of the frame's latency trace
+     * @return false if the frame was coalesced into an identical frame queued just before it
+     */
+    public synchronized boolean enqueue(byte[] frame, long originNanos) {
+        long nowMs = mClockMs.getAsLong();
+
+        if (mLastAcceptedFrame != null
+                && nowMs - mLastAcceptedFrameTimeMs <= mCoalescingWindowMs
+                && Arrays.equals(mLastAcceptedFrame, frame)) {
+            mCoalescedFrameCount++;
+            return false;
+        }
+
+        if (mQueueSize == mQueuedFrames.length) {
+            // Drop the oldest frame: the newest gesture is the one the user is waiting to feel
+            mQueuedFrames[mQueueHead] = null;
+            mQueueHead = (mQueueHead + 1) % mQueuedFrames.length;
+            mQueueSize--;
+            mDroppedFrameCount++;
+            Timber.w("BLE write queue full, dropped oldest frame");
+        }
+
+        int tail = (mQueueHead + mQueueSize) % mQueuedFrames.length;
+        mQueuedFrames[tail] = frame;
+        mQueuedFrameOriginNanos[tail] = originNanos;
+        mQueuedFrameQueuedNanos[tail] = System.nanoTime();
+        mQueueSize++;
+
+        mLastAcceptedFrame = frame;
+        mLastAcceptedFrameTimeMs = nowMs;
+        mEnqueuedFrameCount++;
+
+        drain();
+        return true;
+    }
+
+    public synchronized int getQueueDepth() {
+        return mQueueSize;
+    }
+
+    public synchronized long getEnqueuedFrameCount() {
+        return mEnqueuedFrameCount;
+    }
+
+    public synchronized long getDroppedFrameCount() {
+        return mDroppedFrameCount;
+    }
+
+    public synchronized long getCoalescedFrameCount() {
+        return mCoalescedFrameCount;
+    }
+
+    public synchronized long getWrittenFrameCount() {
+        return mWrittenFrameCount;
+    }
+
+    public synchronized long getWriteCount() {
+        return mWriteCount;
+    }
+
+    public synchronized long getFailedWriteCount() {
+        return mFailedWriteCount;
+    }
+
+    private void drain() {
+        if (mConnection == null || mIsWriteInFlight || mQueueSize == 0) {
+            return;
+        }
+
+        int maxWriteSize = mFraming.getMaxWriteSize();
+        int frameCount = 0;
+        int payloadSize = 0;
+        for (int i = 0; i < mQueueSize; i++) {
+            byte[] frame = mQueuedFrames[(mQueueHead + i) % mQueuedFrames.length];
+            // Always send at least one frame, even if it is larger than the payload
+            if (frameCount > 0 && (!mIsFramePackingEnabled || payloadSize + frame.length > maxWriteSize)) {
+                break;
+            }
+            frameCount++;
+            payloadSize += frame.length;
+        }
+
+        byte[] payload = new byte[payloadSize];
+        int offset = 0;
+        for (int i = 0; i < frameCount; i++) {
+            byte[] frame = mQueuedFrames[mQueueHead];
+            System.arraycopy(frame, 0, payload, offset, frame.length);
+            offset += frame.length;
+            mInFlightFrameOriginNanos[i] = mQueuedFrameOriginNanos[mQueueHead];
+            mInFlightFrameQueuedNanos[i] = mQueuedFrameQueuedNanos[mQueueHead];
+
+            mQueuedFrames[mQueueHead] = null;
+            mQueueHead = (mQueueHead + 1) % mQueuedFrames.length;
+        }
+        mQueueSize -= frameCount;
+
+        RxBleConnection connection = mConnection;
+        int writtenFrameCount = frameCount;
+        mIsWriteInFlight = true;
+        mWriteDisposable = write(connection, mFraming, payload).observeOn(mCallbackScheduler).subscribe(
+                result -> onWriteComplete(connection, writtenFrameCount, null),
+                throwable -> onWriteComplete(connection, writtenFrameCount, throwable));
+    }
+
+    /**
+     * Sends the payload as a single write when it fits in one ATT packet, otherwise as a long write
+     * chunked to the payload size. Either way the characteristic's write type decides whether each
+     * packet waits for a response.
+     */
+    private static Single<byte[]> write(RxBleConnection connection, BleLinkFraming framing, byte[] payload) {
+        BluetoothGattCharacteristic rxCharacteristic = framing.getRxCharacteristic();
+
+        if (payload.length <= framing.getMaxPayloadSize()) {
+            return rxCharacteristic != null
+                    ? connection.writeCharacteristic(rxCharacteristic, payload)
+                    : connection.writeCharacteristic(Characteristics.RX, payload);
+        }
+
+        RxBleConnection.LongWriteOperationBuilder longWriteBuilder = connection.createNewLongWriteBuilder()
+                .setBytes(payload)
+                .setMaxBatchSize(framing.getMaxPayloadSize());
+
+        if (rxCharacteristic != null) {
+            longWriteBuilder.setCharacteristic(rxCharacteristic);
+        } else {
+            longWriteBuilder.setCharacteristicUuid(Characteristics.RX);
+        }
+
+        return longWriteBuilder.build().lastOrError();
+    }
+
+    private void onWriteComplete(RxBleConnection connection, int frameCount, Throwable throwable) {
+        OnWriteErrorListener onWriteErrorListener;
+
+        synchronized (this) {
+            if (connection != mConnection) {
+                // The connection was swapped while the write was in flight
+                return;
+            }
+
+            mIsWriteInFlight = false;
+            mWriteDisposable = null;
+            mWriteCount++;
+
+            if (throwable == null) {
+                mWrittenFrameCount += frameCount;
+                for (int i = 0; i < frameCount; i++) {
+                    mLatencyTracer.record(InteractionLatencyTracer.Stage.WRITE,
+                            mInFlightFrameOriginNanos[i], mInFlightFrameQueuedNanos[i]);
+                }
+            } else {
+                mFailedWriteCount++;
+                mDroppedFrameCount += frameCount;
+            }
+
+            onWriteErrorListener = mOnWriteErrorListener;
+
+            drain();
+        }
+
+        if (throwable != null) {
+            Timber.e(throwable, "Failed to write %d frame(s) to BLE device", frameCount);
+            if (onWriteErrorListener != null) {
+                onWriteErrorListener.onWriteError(throwable);
+            }
+        }
+    }
+
+    private void clearQueue() {
+        Arrays.fill(mQueuedFrames, null);
+        mQueueHead = 0;
+        mQueueSize = 0;
+    }
+}
@@ -0,0 +1,56 @@
+package team.tangible.app.services.ble;
+
+/**
+ * The encoded frame of every constant of an interaction enum, built once when the enum is
+ * initialized. Constants whose code is not a valid frame code, like {@code UNKNOWN}, have no frame.
+ */
+public final class InteractionFrameTable<E extends Enum<E> & TangibleInteraction> {
+    private final E[] mInteractions;
+
+    /**
+     * Indexed by {@link Enum#ordinal()}
+     */
+    private final byte[][] mFrames;
+
+    public InteractionFrameTable(E[] interactions) {
+        mInteractions = interactions;
+        mFrames = new byte[interactions.length][];
+
+        for (E interaction : interactions) {
+            if (TangibleFrameCodec.isValidCode(interaction.getBleCode())) {
+                mFrames[interaction.ordinal()] = TangibleFrameCodec.encode(interaction.getBleCode());
+            }
+        }
+    }
+
+    public byte[] getFrame(E interaction) {
+        return mFrames[interaction.ordinal()];
+    }
+
+    /**
+     * Finds the interaction a frame carries without allocating
+     *
+     * @return the interaction, or null if the frame is invalid or carries a code of another table
+     */
+    public E decode(byte[] buffer, int offset, int length) {
+        if (!TangibleFrameCodec.isValidFrame(buffer, offset, length)) {
+            return null;
+        }
+
+        for (int i = 0; i < mFrames.length; i++) {
+            if (mFrames[i] != null && regionMatches(mFrames[i], buffer, offset)) {
+                return mInteractions[i];
+            }
+        }
+        return null;
+    }
+
+    private static boolean regionMatches(byte[] frame, byte[] buffer, int offset) {
+        for (int i = 0; i < frame.length; i++) {
+            if (frame[i] != buffer[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,118 @@
+package team.tangible.app.services.ble;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import team.tangible.app.services.models.ScannedDevice;
+
+/**
+ * Orders scanned devices by how likely each one is to be the user's Tangible. The score starts
+ * from the smoothed RSSI (the Tangible is usually the closest device, often in the user's hand)
+ * and is boosted for devices that carry a Tangible name. The pairing scan only reports devices
+ * advertising the Nordic UART service, so that tells the candidates apart no further.
+ *
+ * The list is re-ranked on every refresh, but a device only moves above another once it outscores
+ * it by {@link #REORDER_MARGIN_DB}, so rows do not shuffle under the user's finger as RSSI
+ * fluctuates. The ranker remembers the last order it produced, so it must be called from one
+ * thread at a time.
+ */
+public class PairingCandidateRanker {
+    private static final float TANGIBLE_NAME_BOOST_DB = 10;
+    private static final float REORDER_MARGIN_DB = 6;
+
+    /**
+     * A candidate only counts as a clear winner once its RSSI window is full, it is close by, and
+     * it beats the runner-up by a margin no ordinary RSSI fluctuation would explain
+     */
+    private static final int CLEAR_WINNER_MIN_ADVERTISEMENTS = 8;
+    private static final float CLEAR_WINNER_MIN_SMOOTHED_RSSI = -65;
+    private static final float CLEAR_WINNER_MIN_MARGIN_DB = 15;
+
+    /**
+     * Positions in the last ranking, by MAC address
+     */
+    private Map<String, Integer> mLastPositions = new HashMap<>();
+
+    public float getScore(ScannedDevice scannedDevice) {
+        float score = scannedDevice.getSmoothedRssi();
+
+        String name = scannedDevice.getName();
+        if (name != null && name.toLowerCase(Locale.ROOT).contains("tangible")) {
+            score += TANGIBLE_NAME_BOOST_DB;
+        }
+
+        return score;
+    }
+
+    /**
+     * @return a copy of the devices, most likely Tangible first. Devices already shown keep their
+     * relative order unless one clearly outscores another, new devices are placed by score.
+     */
+    public List<ScannedDevice> rank(List<ScannedDevice> scannedDevices) {
+        List<ScannedDevice> rankedDevices = new ArrayList<>(scannedDevices);
+        Map<String, Integer> lastPositions = mLastPositions;
+
+        // Start from the order shown last time, with new devices after it
+        Collections.sort(rankedDevices, (first, second) -> {
+            Integer firstPosition = lastPositions.get(first.getMacAddress());
+            Integer secondPosition = lastPositions.get(second.getMacAddress());
+
+            if (firstPosition != null && secondPosition != null) {
+                return Integer.compare(firstPosition, secondPosition);
+            }
+            if (firstPosition != null || secondPosition != null) {
+                return firstPosition != null ? -1 : 1;
+            }
+            return Float.compare(getScore(second), getScore(first));
+        });
+
+        // Then let each device move up past those it clearly outscores
+        for (int i = 1; i < rankedDevices.size(); i++) {
+            for (int j = i; j > 0 && getScore(rankedDevices.get(j)) - getScore(rankedDevices.get(j - 1)) > REORDER_MARGIN_DB; j--) {
+                Collections.swap(rankedDevices, j, j - 1);
+            }
+        }
+
+        Map<String, Integer> positions = new HashMap<>();
+        for (int i = 0; i < rankedDevices.size(); i++) {
+            positions.put(rankedDevices.get(i).getMacAddress(), i);
+        }
+        mLastPositions = positions;
+
+        return rankedDevices;
+    }
+
+    /**
+     * @param scannedDevices the current scan snapshot, in any order
+     * @return the top-scoring candidate if it is unambiguously the Tangible, otherwise null
+     */
+    public ScannedDevice findClearWinner(List<ScannedDevice> scannedDevices) {
+        ScannedDevice candidate = null;
+        float candidateScore = Float.NEGATIVE_INFINITY;
+        float runnerUpScore = Float.NEGATIVE_INFINITY;
+
+        for (ScannedDevice scannedDevice : scannedDevices) {
+            float score = getScore(scannedDevice);
+            if (score > candidateScore) {
+                runnerUpScore = candidateScore;
+                candidate = scannedDevice;
+                candidateScore = score;
+            } else if (score > runnerUpScore) {
+                runnerUpScore = score;
+            }
+        }
+
+        if (candidate == null
+                || candidate.getAdvertisementCount() < CLEAR_WINNER_MIN_ADVERTISEMENTS
+                || candidate.getSmoothedRssi() < CLEAR_WINNER_MIN_SMOOTHED_RSSI
+                || candidateScore - runnerUpScore < CLEAR_WINNER_MIN_MARGIN_DB) {
+            return null;
+        }
+
+        return candidate;
+    }
+}
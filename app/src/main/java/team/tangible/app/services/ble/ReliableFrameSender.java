@@ -0,0 +1,252 @@
+package team.tangible.app.services.ble;
+
+import android.os.SystemClock;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import io.reactivex.Observable;
+import io.reactivex.Scheduler;
+import io.reactivex.disposables.Disposable;
+import team.tangible.app.utils.InteractionLatencyTracer;
+import team.tangible.app.utils.LatencyHistogram;
+import timber.log.Timber;
+
+/**
+ * Delivers frames over the {@link BleWritePipeline} with acknowledgements. Each frame is sent with
+ * a sequence number (see {@link TangibleFrameCodec#encodeSequenced(byte[], int, byte[])}) and
+ * stays in a sliding window of in-flight frames until the peripheral acks that sequence number.
+ * Up to the window size of frames are in flight at once, so a burst costs roughly one round trip
+ * per window rather than one per frame. A frame that is not acked within
+ * {@link #RETRANSMIT_TIMEOUT_MS} is resent on its own, and given up on after
+ * {@link #MAX_RETRANSMITS} attempts.
+ *
+ * The time from first send to ack of every frame is recorded in {@link #getLatencyHistogram()}.
+ */
+public class ReliableFrameSender {
+    /**
+     * Longer than the pipeline's coalescing window, so a retransmit is never mistaken for a
+     * duplicate of the original
+     */
+    private static final long RETRANSMIT_TIMEOUT_MS = 250;
+    private static final long TIMEOUT_CHECK_INTERVAL_MS = 50;
+    private static final int MAX_RETRANSMITS = 3;
+    private static final int MAX_PENDING_FRAMES = 32;
+    private static final int SEQUENCE_NUMBER_COUNT = 256;
+
+    private final BleWritePipeline mWritePipeline;
+    private final InFlightFrame[] mWindow;
+    private final LatencyHistogram mLatencyHistogram = new LatencyHistogram();
+    private final InteractionLatencyTracer mLatencyTracer;
+    private final Scheduler mTimeoutScheduler;
+    private final LongSupplier mClockMs;
+
+    private final byte[][] mPendingFrames = new byte[MAX_PENDING_FRAMES][];
+    private final long[] mPendingFrameOriginNanos = new long[MAX_PENDING_FRAMES];
+    private int mPendingHead;
+    private int mPendingSize;
+
+    private int mNextSequenceNumber;
+    private int mInFlightCount;
+    private Disposable mTimeoutCheck;
+
+    private long mAckedFrameCount;
+    private long mRetransmitCount;
+    private long mFailedFrameCount;
+
+    private static class InFlightFrame {
+        byte[] mSequencedFrame;
+        int mSequenceNumber;
+        long mOriginNanos;
+        long mFirstSentNanos;
+        long mLastSentMs;
+        int mRetransmitCount;
+        boolean mIsInFlight;
+    }
+
+    /**
+     * @param windowSize       how many frames may await an ack at once
+     * @param timeoutScheduler where timed out frames are retransmitted, the pipeline's thread
+     */
+    public ReliableFrameSender(BleWritePipeline writePipeline, int windowSize, InteractionLatencyTracer latencyTracer,
+                               Scheduler timeoutScheduler) {
+        this(writePipeline, windowSize, latencyTracer, timeoutScheduler, SystemClock::elapsedRealtime);
+    }
+
+    /**
+     * @param clockMs the monotonic clock retransmits are timed on, replaceable for tests
+     */
+    ReliableFrameSender(BleWritePipeline writePipeline, int windowSize, InteractionLatencyTracer latencyTracer,
+                        Scheduler timeoutScheduler, LongSupplier clockMs) {
+        mClockMs = clockMs;
+        mWritePipeline = writePipeline;
+        mLatencyTracer = latencyTracer;
+        mTimeoutScheduler = timeoutScheduler;
+        mWindow = new InFlightFrame[windowSize];
+        for (int i = 0; i < windowSize; i++) {
+            mWindow[i] = new InFlightFrame();
+        }
+    }
+
+    /**
+     * Sends the frame once there is room in the window. If frames are arriving faster than they
+     * are acked the oldest waiting frame is dropped, like the pipeline does.
+     *
+     * @param originNanos the origin of the frame's latency trace
+     */
+    public synchronized void send(byte[] frame, long originNanos) {
+        InFlightFrame slot = findFreeSlot();
+        if (slot != null) {
+            transmit(slot, frame, originNanos);
+            return;
+        }
+
+        if (mPendingSize == mPendingFrames.length) {
+            mPendingFrames[mPendingHead] = null;
+            mPendingHead = (mPendingHead + 1) % mPendingFrames.length;
+            mPendingSize--;
+            mFailedFrameCount++;
+            Timber.w("Reliable send window backed up, dropped oldest waiting frame");
+        }
+
+        int tail = (mPendingHead + mPendingSize) % mPendingFrames.length;
+        mPendingFrames[tail] = frame;
+        mPendingFrameOriginNanos[tail] = originNanos;
+        mPendingSize++;
+    }
+
+    public synchronized void onAck(int sequenceNumber) {
+        for (InFlightFrame slot : mWindow) {
+            if (slot.mIsInFlight && slot.mSequenceNumber == sequenceNumber) {
+                mLatencyHistogram.recordNanos(System.nanoTime() - slot.mFirstSentNanos);
+                mLatencyTracer.record(InteractionLatencyTracer.Stage.ACK, slot.mOriginNanos, slot.mFirstSentNanos);
+                mAckedFrameCount++;
+                release(slot);
+                sendPendingFrames();
+                return;
+            }
+        }
+
+        // A late ack for a frame that was already acked or given up on
+        Timber.d("Ignoring ack for sequence number %d, not in flight", sequenceNumber);
+    }
+
+    /**
+     * Forgets everything in flight or waiting, for when the link goes away
+     */
+    public synchronized void reset() {
+        for (InFlightFrame slot : mWindow) {
+            if (slot.mIsInFlight) {
+                mFailedFrameCount++;
+                release(slot);
+            }
+        }
+
+        mFailedFrameCount += mPendingSize;
+        for (int i = 0; i < mPendingFrames.length; i++) {
+            mPendingFrames[i] = null;
+        }
+        mPendingHead = 0;
+        mPendingSize = 0;
+    }
+
+    public LatencyHistogram getLatencyHistogram() {
+        return mLatencyHistogram;
+    }
+
+    public synchronized int getInFlightCount() {
+        return mInFlightCount;
+    }
+
+    public synchronized long getAckedFrameCount() {
+        return mAckedFrameCount;
+    }
+
+    public synchronized long getRetransmitCount() {
+        return mRetransmitCount;
+    }
+
+    public synchronized long getFailedFrameCount() {
+        return mFailedFrameCount;
+    }
+
+    private InFlightFrame findFreeSlot() {
+        for (InFlightFrame slot : mWindow) {
+            if (!slot.mIsInFlight) {
+                return slot;
+            }
+        }
+        return null;
+    }
+
+    private void transmit(InFlightFrame slot, byte[] frame, long originNanos) {
+        // A fresh array every time: the pipeline may still hold the previous one, both queued for
+        // a retransmit and as the reference it coalesces against
+        slot.mSequencedFrame = new byte[frame.length + 1];
+
+        slot.mSequenceNumber = mNextSequenceNumber;
+        mNextSequenceNumber = (mNextSequenceNumber + 1) % SEQUENCE_NUMBER_COUNT;
+        TangibleFrameCodec.encodeSequenced(frame, slot.mSequenceNumber, slot.mSequencedFrame);
+
+        slot.mOriginNanos = originNanos;
+        slot.mFirstSentNanos = System.nanoTime();
+        slot.mLastSentMs = mClockMs.getAsLong();
+        slot.mRetransmitCount = 0;
+        slot.mIsInFlight = true;
+        mInFlightCount++;
+
+        mWritePipeline.enqueue(slot.mSequencedFrame, originNanos);
+
+        if (mTimeoutCheck == null) {
+            mTimeoutCheck = Observable.interval(TIMEOUT_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS, mTimeoutScheduler)
+                    .subscribe(tick -> checkTimeouts(), Timber::e);
+        }
+    }
+
+    private synchronized void checkTimeouts() {
+        long nowMs = mClockMs.getAsLong();
+
+        for (InFlightFrame slot : mWindow) {
+            if (!slot.mIsInFlight || nowMs - slot.mLastSentMs < RETRANSMIT_TIMEOUT_MS) {
+                continue;
+            }
+
+            if (slot.mRetransmitCount == MAX_RETRANSMITS) {
+                Timber.w("No ack for sequence number %d after %d retransmits, giving up", slot.mSequenceNumber, MAX_RETRANSMITS);
+                mFailedFrameCount++;
+                release(slot);
+                continue;
+            }
+
+            slot.mRetransmitCount++;
+            slot.mLastSentMs = nowMs;
+            mRetransmitCount++;
+            mWritePipeline.enqueue(slot.mSequencedFrame);
+        }
+
+        sendPendingFrames();
+    }
+
+    private void sendPendingFrames() {
+        InFlightFrame slot;
+        while (mPendingSize > 0 && (slot = findFreeSlot()) != null) {
+            byte[] frame = mPendingFrames[mPendingHead];
+            long originNanos = mPendingFrameOriginNanos[mPendingHead];
+            mPendingFrames[mPendingHead] = null;
+            mPendingHead = (mPendingHead + 1) % mPendingFrames.length;
+            mPendingSize--;
+
+            transmit(slot, frame, originNanos);
+        }
+    }
+
+    private void release(InFlightFrame slot) {
+        slot.mIsInFlight = false;
+        mInFlightCount--;
+
+        if (mInFlightCount == 0 && mTimeoutCheck != null) {
+            mTimeoutCheck.dispose();
+            mTimeoutCheck = null;
+        }
+    }
+}
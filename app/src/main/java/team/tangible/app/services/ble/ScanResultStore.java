@@ -0,0 +1,124 @@
+package team.tangible.app.services.ble;
+
+import com.polidea.rxandroidble2.RxBleDevice;
+import com.polidea.rxandroidble2.scan.ScanResult;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import team.tangible.app.services.models.ScannedDevice;
+
+/**
+ * Everything a scan has seen, keyed by MAC address so that the (very frequent) repeat
+ * advertisements are a single map lookup. Devices that stop advertising for longer than the stale
+ * timeout are dropped. Readers get immutable {@link ScannedDevice} snapshots in discovery order,
+ * which makes them safe to diff against the previous snapshot.
+ *
+ * RSSI is also kept over a sliding window of the last {@link #RSSI_WINDOW_SIZE} advertisements,
+ * since a single reading can swing by 10 dB or more.
+ */
+public class ScanResultStore {
+    private static final int RSSI_WINDOW_SIZE = 8;
+
+    private final long mStaleTimeoutMs;
+    private final Map<String, Entry> mEntriesByMacAddress = new LinkedHashMap<>();
+
+    private static class Entry {
+        final RxBleDevice mBleDevice;
+        String mName;
+        int mRssi;
+        long mLastSeenMs;
+        int mAdvertisementCount;
+
+        final int[] mRssiWindow = new int[RSSI_WINDOW_SIZE];
+        int mRssiWindowSum;
+
+        Entry(RxBleDevice bleDevice) {
+            mBleDevice = bleDevice;
+        }
+
+        void addRssi(int rssi) {
+            int slot = mAdvertisementCount % RSSI_WINDOW_SIZE;
+            if (mAdvertisementCount >= RSSI_WINDOW_SIZE) {
+                mRssiWindowSum -= mRssiWindow[slot];
+            }
+            mRssiWindow[slot] = rssi;
+            mRssiWindowSum += rssi;
+            mAdvertisementCount++;
+        }
+
+        float getSmoothedRssi() {
+            return (float) mRssiWindowSum / Math.min(mAdvertisementCount, RSSI_WINDOW_SIZE);
+        }
+    }
+
+    public ScanResultStore(long staleTimeoutMs) {
+        mStaleTimeoutMs = staleTimeoutMs;
+    }
+
+    /**
+     * @return whether anything a snapshot would show has changed (a new device, name or RSSI)
+     */
+    public synchronized boolean onScanResult(ScanResult scanResult, long nowMs) {
+        RxBleDevice bleDevice = scanResult.getBleDevice();
+        String macAddress = bleDevice.getMacAddress();
+        String name = bleDevice.getName();
+        int rssi = scanResult.getRssi();
+
+        Entry entry = mEntriesByMacAddress.get(macAddress);
+        boolean hasChanged;
+
+        if (entry == null) {
+            entry = new Entry(bleDevice);
+            mEntriesByMacAddress.put(macAddress, entry);
+            hasChanged = true;
+        } else {
+            hasChanged = entry.mRssi != rssi || !Objects.equals(entry.mName, name);
+        }
+
+        entry.mName = name;
+        entry.mRssi = rssi;
+        entry.mLastSeenMs = nowMs;
+        entry.addRssi(rssi);
+
+        return hasChanged;
+    }
+
+    /**
+     * @return whether any device was removed
+     */
+    public synchronized boolean expireStaleDevices(long nowMs) {
+        boolean hasChanged = false;
+
+        Iterator<Entry> entries = mEntriesByMacAddress.values().iterator();
+        while (entries.hasNext()) {
+            if (nowMs - entries.next().mLastSeenMs > mStaleTimeoutMs) {
+                entries.remove();
+                hasChanged = true;
+            }
+        }
+
+        return hasChanged;
+    }
+
+    public synchronized List<ScannedDevice> getDevices() {
+        List<ScannedDevice> devices = new ArrayList<>(mEntriesByMacAddress.size());
+        for (Entry entry : mEntriesByMacAddress.values()) {
+            devices.add(new ScannedDevice(entry.mBleDevice, entry.mName, entry.mRssi, entry.mLastSeenMs,
+                    entry.mAdvertisementCount, entry.getSmoothedRssi()));
+        }
+        return devices;
+    }
+
+    public synchronized int size() {
+        return mEntriesByMacAddress.size();
+    }
+
+    public synchronized void clear() {
+        mEntriesByMacAddress.clear();
+    }
+}
@@ -0,0 +1,163 @@
+package team.tangible.app.services.ble;
+
+import team.tangible.app.services.SocialTouchInteractionService.Actuator;
+
+/**
+ * Something the Tangible reported over the TX characteristic. Inbound frames use the same format
+ * as outbound ones, with the four character code read as:
+ *
+ * <ul>
+ *     <li>{@code AKxx}: the frame with sequence number {@code xx} (hex) was received</li>
+ *     <li>{@code Sppa}: the actuator at position {@code pp} (e.g. {@code BR} for back right) is
+ *     active ({@code a} = {@code 1}) or idle ({@code 0})</li>
+ *     <li>{@code BTxx}: the battery is at {@code xx} (hex) percent</li>
+ *     <li>{@code ERxx}: the firmware hit error {@code xx} (hex)</li>
+ *     <li>{@code VRxx}: the firmware understands frame format version {@code xx} (hex)</li>
+ * </ul>
+ *
+ * Anything else is passed on as {@link Unrecognized} rather than dropped.
+ */
+public abstract class TangibleEvent {
+    private final String mCode;
+
+    TangibleEvent(String code) {
+        mCode = code;
+    }
+
+    public String getCode() {
+        return mCode;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" + mCode + "}";
+    }
+
+    /**
+     * @param code the code of a frame that has already passed checksum validation
+     */
+    public static TangibleEvent parse(String code) {
+        try {
+            if (code.startsWith("AK")) {
+                return new Ack(code, parseHex(code));
+            }
+
+            if (code.startsWith("BT")) {
+                return new BatteryLevel(code, parseHex(code));
+            }
+
+            if (code.startsWith("ER")) {
+                return new DeviceError(code, parseHex(code));
+            }
+
+            if (code.startsWith("VR")) {
+                return new ProtocolVersion(code, parseHex(code));
+            }
+
+            if (code.charAt(0) == 'S') {
+                Actuator actuator = parseActuator(code.substring(1, 3));
+                char state = code.charAt(3);
+                if (actuator != null && (state == '0' || state == '1')) {
+                    return new ActuatorState(code, actuator, state == '1');
+                }
+            }
+        } catch (NumberFormatException e) {
+            // Fall through to unrecognized
+        }
+
+        return new Unrecognized(code);
+    }
+
+    private static int parseHex(String code) {
+        return Integer.parseInt(code.substring(2, 4), 16);
+    }
+
+    private static Actuator parseActuator(String position) {
+        switch (position) {
+            case "BR": return Actuator.BACK_RIGHT;
+            case "TR": return Actuator.TOP_RIGHT;
+            case "FR": return Actuator.FRONT_RIGHT;
+            case "BL": return Actuator.BACK_LEFT;
+            case "TL": return Actuator.TOP_LEFT;
+            case "FL": return Actuator.FRONT_LEFT;
+            default: return null;
+        }
+    }
+
+    public static class Ack extends TangibleEvent {
+        private final int mSequenceNumber;
+
+        Ack(String code, int sequenceNumber) {
+            super(code);
+            mSequenceNumber = sequenceNumber;
+        }
+
+        public int getSequenceNumber() {
+            return mSequenceNumber;
+        }
+    }
+
+    public static class ActuatorState extends TangibleEvent {
+        private final Actuator mActuator;
+        private final boolean mIsActive;
+
+        ActuatorState(String code, Actuator actuator, boolean isActive) {
+            super(code);
+            mActuator = actuator;
+            mIsActive = isActive;
+        }
+
+        public Actuator getActuator() {
+            return mActuator;
+        }
+
+        public boolean isActive() {
+            return mIsActive;
+        }
+    }
+
+    public static class BatteryLevel extends TangibleEvent {
+        private final int mPercent;
+
+        BatteryLevel(String code, int percent) {
+            super(code);
+            mPercent = percent;
+        }
+
+        public int getPercent() {
+            return mPercent;
+        }
+    }
+
+    public static class DeviceError extends TangibleEvent {
+        private final int mErrorCode;
+
+        DeviceError(String code, int errorCode) {
+            super(code);
+            mErrorCode = errorCode;
+        }
+
+        public int getErrorCode() {
+            return mErrorCode;
+        }
+    }
+
+    public static class ProtocolVersion extends TangibleEvent {
+        private final int mVersion;
+
+        ProtocolVersion(String code, int version) {
+            super(code);
+            mVersion = version;
+        }
+
+        public int getVersion() {
+            return mVersion;
+        }
+    }
+
+    public static class Unrecognized extends TangibleEvent {
+        Unrecognized(String code) {
+            super(code);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package team.tangible.app.services.ble;
+
+/**
+ * Encodes and decodes the frames exchanged with the Tangible over the UART link. A frame is a
+ * {@code '!'}, a {@link #CODE_LENGTH} character ASCII code and a one byte checksum, the same
+ * format the Bluefruit controller uses.
+ *
+ * Firmware that reports {@link #VERSION_2} also accepts v2 frames, which start with {@code '#'}
+ * and carry an intensity and a duration byte between the code and the checksum. The different
+ * start byte keeps the two formats apart on the wire.
+ *
+ * Encoding allocates, so it is meant for building {@link InteractionFrameTable}s rather than for
+ * the write path.
+ */
+public final class TangibleFrameCodec {
+    public static final byte FRAME_START = '!';
+    public static final int CODE_LENGTH = 4;
+    public static final int FRAME_LENGTH = 1 + CODE_LENGTH + 1;
+
+    public static final int VERSION_1 = 1;
+    public static final int VERSION_2 = 2;
+
+    public static final byte FRAME_START_V2 = '#';
+    public static final int FRAME_LENGTH_V2 = FRAME_LENGTH + 2;
+
+    /**
+     * Intensity byte for an interaction felt at full strength
+     */
+    public static final int FULL_INTENSITY = 0xFF;
+
+    /**
+     * Duration byte that leaves the duration up to the firmware
+     */
+    public static final int DEFAULT_DURATION = 0;
+
+    /**
+     * What one step of the duration byte stands for
+     */
+    public static final int DURATION_UNIT_MS = 10;
+
+    private TangibleFrameCodec() {}
+
+    /**
+     * @param code an ASCII code of exactly {@link #CODE_LENGTH} characters
+     */
+    public static byte[] encode(String code) {
+        if (!isValidCode(code)) {
+            throw new IllegalArgumentException("Not a " + CODE_LENGTH + " character ASCII frame code: " + code);
+        }
+
+        byte[] frame = new byte[FRAME_LENGTH];
+        frame[0] = FRAME_START;
+        for (int i = 0; i < CODE_LENGTH; i++) {
+            frame[1 + i] = (byte) code.charAt(i);
+        }
+        frame[FRAME_LENGTH - 1] = checksum(frame, 0, FRAME_LENGTH - 1);
+
+        return frame;
+    }
+
+    /**
+     * Builds the v2 form of a v1 frame. Allocates, but only one small array per interaction, as
+     * the parameters vary with every gesture.
+     *
+     * @param frame     a complete v1 frame, checksum included
+     * @param intensity from 0 to {@link #FULL_INTENSITY}
+     * @param duration  in {@link #DURATION_UNIT_MS} steps, or {@link #DEFAULT_DURATION}
+     */
+    public static byte[] encodeV2(byte[] frame, int intensity, int duration) {
+        byte[] frameV2 = new byte[FRAME_LENGTH_V2];
+        frameV2[0] = FRAME_START_V2;
+        System.arraycopy(frame, 1, frameV2, 1, CODE_LENGTH);
+        frameV2[1 + CODE_LENGTH] = (byte) intensity;
+        frameV2[2 + CODE_LENGTH] = (byte) duration;
+        frameV2[FRAME_LENGTH_V2 - 1] = checksum(frameV2, 0, FRAME_LENGTH_V2 - 1);
+
+        return frameV2;
+    }
+
+    /**
+     * @param fraction of full strength, clamped to [0, 1]
+     */
+    public static int toIntensity(float fraction) {
+        return Math.round(Math.max(0f, Math.min(1f, fraction)) * FULL_INTENSITY);
+    }
+
+    /**
+     * @return the duration byte closest to the duration, clamped to what the byte can hold
+     */
+    public static int toDuration(long durationMs) {
+        return (int) Math.max(1, Math.min(0xFF, (durationMs + DURATION_UNIT_MS / 2) / DURATION_UNIT_MS));
+    }
+
+    /**
+     * Writes the frame with a sequence number inserted before its checksum, for the peripheral to
+     * echo back in an {@link TangibleEvent.Ack}
+     *
+     * @param frame       a complete frame, checksum included
+     * @param destination exactly one byte longer than the frame
+     */
+    public static void encodeSequenced(byte[] frame, int sequenceNumber, byte[] destination) {
+        int checksumIndex = frame.length - 1;
+        System.arraycopy(frame, 0, destination, 0, checksumIndex);
+        destination[checksumIndex] = (byte) sequenceNumber;
+        destination[checksumIndex + 1] = checksum(destination, 0, checksumIndex + 1);
+    }
+
+    /**
+     * @return the code carried by the frame at the offset, or null if there is no valid frame there
+     */
+    public static String decode(byte[] buffer, int offset, int length) {
+        if (!isValidFrame(buffer, offset, length)) {
+            return null;
+        }
+
+        char[] code = new char[CODE_LENGTH];
+        for (int i = 0; i < CODE_LENGTH; i++) {
+            code[i] = (char) buffer[offset + 1 + i];
+        }
+        return new String(code);
+    }
+
+    /**
+     * Whether a well-formed frame with a matching checksum starts at the offset
+     */
+    public static boolean isValidFrame(byte[] buffer, int offset, int length) {
+        if (length < FRAME_LENGTH || offset < 0 || offset + FRAME_LENGTH > buffer.length) {
+            return false;
+        }
+
+        return buffer[offset] == FRAME_START
+                && buffer[offset + FRAME_LENGTH - 1] == checksum(buffer, offset, FRAME_LENGTH - 1);
+    }
+
+    public static boolean isValidCode(String code) {
+        if (code == null || code.length() != CODE_LENGTH) {
+            return false;
+        }
+
+        for (int i = 0; i < CODE_LENGTH; i++) {
+            if (code.charAt(i) > 0x7F) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Source: https://github.com/ZoneTangible/Bluefruit_LE_Connect_Android_V2/blob/97cb02e1b5d8c90e7ab1bf68548afbeb39ba5096/app/src/main/java/com/adafruit/bluefruit/le/connect/ble/central/BlePeripheralUart.java#L261-L275
+     */
+    public static byte checksum(byte[] data, int offset, int length) {
+        byte checksum = 0;
+        for (int i = offset; i < offset + length; i++) {
+            checksum += data[i];
+        }
+        return (byte) (~checksum);       // Invert
+    }
+}
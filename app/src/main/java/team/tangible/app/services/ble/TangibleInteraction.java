@@ -0,0 +1,18 @@
+package team.tangible.app.services.ble;
+
+/**
+ * Anything that is sent to the Tangible as a single frame. Implemented by the interaction enums,
+ * each of which keeps an {@link InteractionFrameTable} so the frame is encoded only once.
+ */
+public interface TangibleInteraction {
+    /**
+     * The code carried in the frame, e.g. {@code "DTBR"}
+     */
+    String getBleCode();
+
+    /**
+     * @return the complete frame, shared between callers so it must not be modified, or null if
+     * this interaction is never sent
+     */
+    byte[] getFrame();
+}
@@ -0,0 +1,101 @@
+package team.tangible.app.services.ble;
+
+/**
+ * Turns the byte stream arriving on the TX characteristic back into frames. A notification can
+ * end part way through a frame or carry several of them, so bytes are buffered until a whole
+ * frame is available. Anything that is not a valid frame is skipped up to the next
+ * {@link TangibleFrameCodec#FRAME_START}, the same way the firmware resynchronizes on its side.
+ *
+ * Not thread safe, notifications for one characteristic are delivered one at a time.
+ */
+public class UartFrameReassembler {
+    private static final int DEFAULT_BUFFER_SIZE = 512;
+
+    private final byte[] mBuffer;
+    private final OnFrameListener mOnFrameListener;
+    private int mLength;
+
+    private long mFrameCount;
+    private long mDiscardedByteCount;
+
+    public interface OnFrameListener {
+        /**
+         * @param buffer a buffer holding a frame of {@link TangibleFrameCodec#FRAME_LENGTH} bytes
+         *               with a valid checksum at the offset. Only valid during the call.
+         */
+        void onFrame(byte[] buffer, int offset);
+    }
+
+    public UartFrameReassembler(OnFrameListener onFrameListener) {
+        this(DEFAULT_BUFFER_SIZE, onFrameListener);
+    }
+
+    public UartFrameReassembler(int bufferSize, OnFrameListener onFrameListener) {
+        mBuffer = new byte[bufferSize];
+        mOnFrameListener = onFrameListener;
+    }
+
+    public void append(byte[] data) {
+        int dataOffset = 0;
+        while (dataOffset < data.length) {
+            int copyLength = Math.min(data.length - dataOffset, mBuffer.length - mLength);
+            System.arraycopy(data, dataOffset, mBuffer, mLength, copyLength);
+            mLength += copyLength;
+            dataOffset += copyLength;
+
+            extractFrames();
+
+            if (mLength == mBuffer.length) {
+                // Only reachable with a buffer smaller than a frame, nothing useful can be kept
+                mDiscardedByteCount += mLength;
+                mLength = 0;
+            }
+        }
+    }
+
+    /**
+     * Drops any partial frame, e.g. when the link is re-established
+     */
+    public void reset() {
+        mLength = 0;
+    }
+
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    public long getDiscardedByteCount() {
+        return mDiscardedByteCount;
+    }
+
+    private void extractFrames() {
+        int offset = 0;
+
+        while (offset < mLength) {
+            if (mBuffer[offset] != TangibleFrameCodec.FRAME_START) {
+                offset++;
+                mDiscardedByteCount++;
+                continue;
+            }
+
+            if (mLength - offset < TangibleFrameCodec.FRAME_LENGTH) {
+                // Wait for the rest of the frame
+                break;
+            }
+
+            if (TangibleFrameCodec.isValidFrame(mBuffer, offset, mLength - offset)) {
+                mFrameCount++;
+                mOnFrameListener.onFrame(mBuffer, offset);
+                offset += TangibleFrameCodec.FRAME_LENGTH;
+            } else {
+                // Either noise or a frame whose start was lost, look for the next start
+                offset++;
+                mDiscardedByteCount++;
+            }
+        }
+
+        // Keep the unconsumed tail at the start of the buffer
+        System.arraycopy(mBuffer, offset, mBuffer, 0, mLength - offset);
+        mLength -= offset;
+    }
+}
@@ -0,0 +1,184 @@
+package team.tangible.app.services.conference;
+
+import android.content.Context;
+import android.hardware.display.DisplayManager;
+import android.os.Build;
+import android.os.PowerManager;
+import android.view.Choreographer;
+import android.view.Display;
+
+import io.reactivex.Observable;
+import io.reactivex.subjects.BehaviorSubject;
+import team.tangible.app.utils.InteractionLatencyTracer;
+import team.tangible.app.utils.LatencyHistogram;
+import timber.log.Timber;
+
+import static team.tangible.app.Constants.Jitsi.QualityThresholds;
+
+/**
+ * Picks the {@link ConferenceQualityProfile} the device can currently afford. While running it
+ * watches the main thread for dropped frames, and every evaluation window also checks the thermal
+ * status and the p95 latency of the BLE writes made during the window. Each signal maps to a
+ * profile and the cheapest one wins.
+ *
+ * Unless a profile was fixed by configuration, in which case that is always the profile.
+ * Start and stop it on the main thread.
+ */
+public class ConferenceQualityGovernor implements Choreographer.FrameCallback {
+    private static final long EVALUATION_WINDOW_NS = 2_000_000_000L;
+    private static final long DEFAULT_FRAME_INTERVAL_NS = 16_666_667L;
+
+    private final PowerManager mPowerManager;
+    private final DisplayManager mDisplayManager;
+    private final InteractionLatencyTracer mLatencyTracer;
+    private final ConferenceQualityProfile mFixedProfile;
+    private final BehaviorSubject<ConferenceQualityProfile> mProfile;
+
+    private final LatencyHistogram mWindowWriteLatency = new LatencyHistogram();
+    private final LatencyHistogram mWriteLatencyBaseline = new LatencyHistogram();
+
+    private boolean mIsRunning;
+    private long mFrameIntervalNs;
+    private long mLastFrameTimeNs;
+    private long mWindowStartNs;
+    private int mFrameCount;
+    private int mDroppedFrameCount;
+
+    /**
+     * @param fixedProfile the profile to always use, or null to choose one from measurements
+     */
+    public ConferenceQualityGovernor(Context context, InteractionLatencyTracer latencyTracer,
+                                     ConferenceQualityProfile fixedProfile) {
+        mPowerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        mDisplayManager = (DisplayManager) context.getSystemService(Context.DISPLAY_SERVICE);
+        mLatencyTracer = latencyTracer;
+        mFixedProfile = fixedProfile;
+        mProfile = BehaviorSubject.createDefault(
+                fixedProfile != null ? fixedProfile : ConferenceQualityProfile.FULL_VIDEO);
+    }
+
+    public ConferenceQualityProfile getProfile() {
+        return mProfile.getValue();
+    }
+
+    /**
+     * Emits the current profile, then every change to it
+     */
+    public Observable<ConferenceQualityProfile> observeProfile() {
+        return mProfile.distinctUntilChanged();
+    }
+
+    public void start() {
+        if (mIsRunning || mFixedProfile != null) {
+            return;
+        }
+        mIsRunning = true;
+
+        Display display = mDisplayManager.getDisplay(Display.DEFAULT_DISPLAY);
+        mFrameIntervalNs = display != null && display.getRefreshRate() > 0
+                ? (long) (1_000_000_000L / display.getRefreshRate())
+                : DEFAULT_FRAME_INTERVAL_NS;
+
+        resetWindow(0);
+        // Writes made while stopped do not count towards the first window
+        mWindowWriteLatency.setToInterval(getWriteLatency(), mWriteLatencyBaseline);
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    public void stop() {
+        mIsRunning = false;
+        Choreographer.getInstance().removeFrameCallback(this);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!mIsRunning) {
+            return;
+        }
+
+        if (mLastFrameTimeNs == 0) {
+            resetWindow(frameTimeNanos);
+        } else {
+            // A frame that took n intervals means n - 1 frames were dropped
+            long skippedIntervals = (frameTimeNanos - mLastFrameTimeNs + mFrameIntervalNs / 2) / mFrameIntervalNs - 1;
+            mFrameCount += 1 + Math.max(0, skippedIntervals);
+            mDroppedFrameCount += Math.max(0, skippedIntervals);
+            mLastFrameTimeNs = frameTimeNanos;
+
+            if (frameTimeNanos - mWindowStartNs >= EVALUATION_WINDOW_NS) {
+                evaluate();
+                resetWindow(frameTimeNanos);
+            }
+        }
+
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    private void evaluate() {
+        float droppedFrameRatio = mFrameCount > 0 ? (float) mDroppedFrameCount / mFrameCount : 0;
+        int thermalStatus = getThermalStatus();
+        mWindowWriteLatency.setToInterval(getWriteLatency(), mWriteLatencyBaseline);
+        double bleWriteP95Ms = mWindowWriteLatency.getCount() >= QualityThresholds.MIN_BLE_WRITE_SAMPLES
+                ? mWindowWriteLatency.getPercentileMs(95) : 0;
+
+        ConferenceQualityProfile profile = ConferenceQualityProfile.worstOf(
+                ConferenceQualityProfile.worstOf(
+                        getProfileForDroppedFrames(droppedFrameRatio),
+                        getProfileForThermalStatus(thermalStatus)),
+                getProfileForBleWriteLatency(bleWriteP95Ms));
+
+        if (profile != getProfile()) {
+            Timber.i("Conference quality %s -> %s (dropped frames %.0f%%, thermal status %d, BLE write p95 %.1f ms)",
+                    getProfile(), profile, droppedFrameRatio * 100, thermalStatus, bleWriteP95Ms);
+            mProfile.onNext(profile);
+        }
+    }
+
+    private void resetWindow(long frameTimeNanos) {
+        mLastFrameTimeNs = frameTimeNanos;
+        mWindowStartNs = frameTimeNanos;
+        mFrameCount = 0;
+        mDroppedFrameCount = 0;
+    }
+
+    private LatencyHistogram getWriteLatency() {
+        return mLatencyTracer.getStageHistogram(InteractionLatencyTracer.Stage.WRITE);
+    }
+
+    private int getThermalStatus() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+            return PowerManager.THERMAL_STATUS_NONE;
+        }
+        return mPowerManager.getCurrentThermalStatus();
+    }
+
+    private static ConferenceQualityProfile getProfileForDroppedFrames(float droppedFrameRatio) {
+        if (droppedFrameRatio >= QualityThresholds.AUDIO_ONLY_DROPPED_FRAME_RATIO) {
+            return ConferenceQualityProfile.AUDIO_ONLY;
+        }
+        if (droppedFrameRatio >= QualityThresholds.LOW_RES_DROPPED_FRAME_RATIO) {
+            return ConferenceQualityProfile.LOW_RES_VIDEO;
+        }
+        return ConferenceQualityProfile.FULL_VIDEO;
+    }
+
+    private static ConferenceQualityProfile getProfileForThermalStatus(int thermalStatus) {
+        if (thermalStatus >= PowerManager.THERMAL_STATUS_SEVERE) {
+            return ConferenceQualityProfile.AUDIO_ONLY;
+        }
+        if (thermalStatus >= PowerManager.THERMAL_STATUS_MODERATE) {
+            return ConferenceQualityProfile.LOW_RES_VIDEO;
+        }
+        return ConferenceQualityProfile.FULL_VIDEO;
+    }
+
+    private static ConferenceQualityProfile getProfileForBleWriteLatency(double bleWriteP95Ms) {
+        if (bleWriteP95Ms >= QualityThresholds.AUDIO_ONLY_BLE_WRITE_P95_MS) {
+            return ConferenceQualityProfile.AUDIO_ONLY;
+        }
+        if (bleWriteP95Ms >= QualityThresholds.LOW_RES_BLE_WRITE_P95_MS) {
+            return ConferenceQualityProfile.LOW_RES_VIDEO;
+        }
+        return ConferenceQualityProfile.FULL_VIDEO;
+    }
+}
@@ -0,0 +1,48 @@
+package team.tangible.app.services.conference;
+
+import org.jitsi.meet.sdk.JitsiMeetConferenceOptions;
+
+/**
+ * How much of the device a call may use, from best to cheapest. The haptic channel always has
+ * priority, so the call gives way whenever touch or BLE work is suffering.
+ */
+public enum ConferenceQualityProfile {
+    FULL_VIDEO,
+    LOW_RES_VIDEO,
+    AUDIO_ONLY;
+
+    /**
+     * Jitsi feature flag capping the video resolution sent and received
+     */
+    private static final String RESOLUTION_FEATURE_FLAG = "resolution";
+    private static final int LOW_RES_VIDEO_RESOLUTION = 360;
+
+    public boolean isWorseThan(ConferenceQualityProfile other) {
+        return ordinal() > other.ordinal();
+    }
+
+    public static ConferenceQualityProfile worstOf(ConferenceQualityProfile a, ConferenceQualityProfile b) {
+        return a.isWorseThan(b) ? a : b;
+    }
+
+    public JitsiMeetConferenceOptions.Builder applyTo(JitsiMeetConferenceOptions.Builder builder) {
+        switch (this) {
+            case LOW_RES_VIDEO:
+                return builder
+                        .setAudioOnly(false)
+                        .setVideoMuted(false)
+                        .setFeatureFlag(RESOLUTION_FEATURE_FLAG, LOW_RES_VIDEO_RESOLUTION);
+
+            case AUDIO_ONLY:
+                return builder
+                        .setAudioOnly(true)
+                        .setVideoMuted(true);
+
+            case FULL_VIDEO:
+            default:
+                return builder
+                        .setAudioOnly(false)
+                        .setVideoMuted(false);
+        }
+    }
+}
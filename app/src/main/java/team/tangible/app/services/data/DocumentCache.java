@@ -0,0 +1,96 @@
+package team.tangible.app.services.data;
+
+import android.content.SharedPreferences;
+
+import team.tangible.app.services.models.DataRecord;
+import team.tangible.app.services.models.RoomDocument;
+import team.tangible.app.services.models.UserDocument;
+import timber.log.Timber;
+
+import static team.tangible.app.Constants.SharedPreferences.Keys;
+
+/**
+ * Keeps the last known copy of the current user's document and their room's document, so the app
+ * can act on them before Firestore has answered. One entry is kept per document type.
+ *
+ * Entries older than the TTL are not served. Entries written under a different
+ * {@link #SCHEMA_VERSION} are dropped when the cache is created, so bump it whenever the stored
+ * fields change meaning.
+ */
+public class DocumentCache {
+    private static final int SCHEMA_VERSION = 1;
+
+    private final SharedPreferences mSharedPreferences;
+    private final long mTtlMs;
+
+    public DocumentCache(SharedPreferences sharedPreferences, long ttlMs) {
+        mSharedPreferences = sharedPreferences;
+        mTtlMs = ttlMs;
+
+        if (mSharedPreferences.getInt(Keys.DOCUMENT_CACHE_SCHEMA_VERSION, SCHEMA_VERSION) != SCHEMA_VERSION) {
+            Timber.i("Document cache schema changed, clearing it");
+            clear();
+        }
+    }
+
+    /**
+     * @return the cached user document if it belongs to the user and is fresh, otherwise null
+     */
+    public DataRecord<UserDocument> getUserDocument(String userUid, long nowMs) {
+        if (!userUid.equals(mSharedPreferences.getString(Keys.CACHED_USER_DOCUMENT_ID, null))
+                || !isFresh(Keys.CACHED_USER_DOCUMENT_TIMESTAMP_MS, nowMs)) {
+            return null;
+        }
+
+        String roomId = mSharedPreferences.getString(Keys.CACHED_USER_DOCUMENT_ROOM_ID, null);
+        return roomId != null ? new DataRecord<>(userUid, /* resourcePath: */ null, new UserDocument(roomId)) : null;
+    }
+
+    public void putUserDocument(DataRecord<UserDocument> userDocument, long nowMs) {
+        mSharedPreferences.edit()
+                .putInt(Keys.DOCUMENT_CACHE_SCHEMA_VERSION, SCHEMA_VERSION)
+                .putString(Keys.CACHED_USER_DOCUMENT_ID, userDocument.getId())
+                .putString(Keys.CACHED_USER_DOCUMENT_ROOM_ID, userDocument.getData().getRoomId())
+                .putLong(Keys.CACHED_USER_DOCUMENT_TIMESTAMP_MS, nowMs)
+                .apply();
+    }
+
+    /**
+     * @return the cached room document if it is the room asked for and is fresh, otherwise null
+     */
+    public DataRecord<RoomDocument> getRoomDocument(String roomId, long nowMs) {
+        if (!roomId.equals(mSharedPreferences.getString(Keys.CACHED_ROOM_DOCUMENT_ID, null))
+                || !isFresh(Keys.CACHED_ROOM_DOCUMENT_TIMESTAMP_MS, nowMs)) {
+            return null;
+        }
+
+        String jitsiRoom = mSharedPreferences.getString(Keys.CACHED_ROOM_DOCUMENT_JITSI_ROOM, null);
+        return jitsiRoom != null ? new DataRecord<>(roomId, "rooms/" + roomId, new RoomDocument(jitsiRoom)) : null;
+    }
+
+    public void putRoomDocument(DataRecord<RoomDocument> roomDocument, long nowMs) {
+        mSharedPreferences.edit()
+                .putInt(Keys.DOCUMENT_CACHE_SCHEMA_VERSION, SCHEMA_VERSION)
+                .putString(Keys.CACHED_ROOM_DOCUMENT_ID, roomDocument.getId())
+                .putString(Keys.CACHED_ROOM_DOCUMENT_JITSI_ROOM, roomDocument.getData().getJitsiRoom())
+                .putLong(Keys.CACHED_ROOM_DOCUMENT_TIMESTAMP_MS, nowMs)
+                .apply();
+    }
+
+    public void clear() {
+        mSharedPreferences.edit()
+                .putInt(Keys.DOCUMENT_CACHE_SCHEMA_VERSION, SCHEMA_VERSION)
+                .remove(Keys.CACHED_USER_DOCUMENT_ID)
+                .remove(Keys.CACHED_USER_DOCUMENT_ROOM_ID)
+                .remove(Keys.CACHED_USER_DOCUMENT_TIMESTAMP_MS)
+                .remove(Keys.CACHED_ROOM_DOCUMENT_ID)
+                .remove(Keys.CACHED_ROOM_DOCUMENT_JITSI_ROOM)
+                .remove(Keys.CACHED_ROOM_DOCUMENT_TIMESTAMP_MS)
+                .apply();
+    }
+
+    private boolean isFresh(String timestampKey, long nowMs) {
+        long timestampMs = mSharedPreferences.getLong(timestampKey, 0);
+        return timestampMs > 0 && nowMs - timestampMs < mTtlMs;
+    }
+}
@@ -0,0 +1,132 @@
+package team.tangible.app.services.data;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.reactivex.Single;
+import io.reactivex.subjects.SingleSubject;
+
+/**
+ * Loads one value per key at a time. Subscribers that ask for a key while it is already being
+ * loaded share that load instead of starting another, and loaded values are memoized in an LRU
+ * of bounded size until they are evicted or {@link #invalidate(String) invalidated}.
+ *
+ * A load that was started before its key was invalidated still completes for the subscribers
+ * already waiting on it, but its value is not memoized since it may be stale.
+ *
+ * @param <T> the type of value loaded
+ */
+public class SingleFlightCache<T> {
+    private final Map<String, T> mValues;
+    private final Map<String, SingleSubject<T>> mInFlight = new HashMap<>();
+
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+    private final AtomicLong mCoalescedCount = new AtomicLong();
+
+    public SingleFlightCache(int maxSize) {
+        mValues = new LinkedHashMap<String, T>(maxSize, 0.75f, /* accessOrder: */ true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, T> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @param key    what identifies the value, e.g. a document path
+     * @param loader creates the load, only called when the value is neither memoized nor already
+     *               being loaded
+     */
+    public Single<T> get(String key, Callable<Single<T>> loader) {
+        return Single.defer(() -> {
+            SingleSubject<T> flight;
+
+            synchronized (this) {
+                T value = mValues.get(key);
+                if (value != null) {
+                    mHitCount.incrementAndGet();
+                    return Single.just(value);
+                }
+
+                flight = mInFlight.get(key);
+                if (flight != null) {
+                    mCoalescedCount.incrementAndGet();
+                    return flight.hide();
+                }
+
+                mMissCount.incrementAndGet();
+                flight = SingleSubject.create();
+                mInFlight.put(key, flight);
+            }
+
+            SingleSubject<T> startedFlight = flight;
+            // Not disposed along with the subscribers: whatever comes back is worth memoizing.
+            // Deferred so that a loader that throws fails the flight rather than leaving it open.
+            Single.defer(loader).subscribe(
+                    value -> onLoaded(key, startedFlight, value),
+                    throwable -> onFailed(key, startedFlight, throwable));
+
+            return startedFlight.hide();
+        });
+    }
+
+    /**
+     * Forgets the memoized value for the key, and detaches any load in flight so the next
+     * {@link #get(String, Callable)} starts a fresh one
+     */
+    public synchronized void invalidate(String key) {
+        mValues.remove(key);
+        mInFlight.remove(key);
+    }
+
+    public synchronized void clear() {
+        mValues.clear();
+        mInFlight.clear();
+    }
+
+    /**
+     * @return how many gets were answered from a memoized value
+     */
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    /**
+     * @return how many gets started a load
+     */
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    /**
+     * @return how many gets joined a load that was already in flight
+     */
+    public long getCoalescedCount() {
+        return mCoalescedCount.get();
+    }
+
+    private void onLoaded(String key, SingleSubject<T> flight, T value) {
+        synchronized (this) {
+            if (mInFlight.get(key) == flight) {
+                mInFlight.remove(key);
+                mValues.put(key, value);
+            }
+        }
+
+        flight.onSuccess(value);
+    }
+
+    private void onFailed(String key, SingleSubject<T> flight, Throwable throwable) {
+        synchronized (this) {
+            if (mInFlight.get(key) == flight) {
+                mInFlight.remove(key);
+            }
+        }
+
+        flight.onError(throwable);
+    }
+}
@@ -0,0 +1,70 @@
+package team.tangible.app.services.emoji;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.ImageDecoder;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+
+import io.reactivex.Single;
+import io.reactivex.schedulers.Schedulers;
+import team.tangible.app.services.EmojiService;
+
+/**
+ * Loads the emoji reaction animations, off the main thread and at the size they are shown at. On
+ * API 28+ they are played by an {@link android.graphics.drawable.AnimatedImageDrawable}, which
+ * decodes one frame at a time into buffers it reuses rather than decoding the whole GIF up front.
+ * Older devices get the still icon, subsampled close to that size.
+ */
+public class EmojiAnimationLoader {
+    private static final String ANIMATION_ASSET_DIRECTORY = "emoji/";
+
+    private final Context mContext;
+
+    public EmojiAnimationLoader(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    /**
+     * Loads the reaction's animation, scaled to fit within sizePx, on an I/O thread. Start it with
+     * {@link android.graphics.drawable.Animatable#start()} if it is one.
+     */
+    public Single<Drawable> loadAnimation(EmojiService.Interaction interaction, int sizePx) {
+        return Single.fromCallable(() -> {
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.P) {
+                return (Drawable) new BitmapDrawable(mContext.getResources(), decodeIcon(interaction.getIconResId(), sizePx));
+            }
+
+            ImageDecoder.Source source = ImageDecoder.createSource(mContext.getAssets(),
+                    ANIMATION_ASSET_DIRECTORY + interaction.getAnimationAssetName());
+            return ImageDecoder.decodeDrawable(source, (decoder, info, ignored) -> {
+                float scale = Math.min(1f, (float) sizePx / Math.max(info.getSize().getWidth(), info.getSize().getHeight()));
+                decoder.setTargetSize(Math.max(1, Math.round(info.getSize().getWidth() * scale)),
+                        Math.max(1, Math.round(info.getSize().getHeight() * scale)));
+            });
+        }).subscribeOn(Schedulers.io());
+    }
+
+    private Bitmap decodeIcon(int resId, int sizePx) {
+        Resources resources = mContext.getResources();
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        options.inScaled = false;
+        BitmapFactory.decodeResource(resources, resId, options);
+
+        // Subsampling only goes down in powers of two, so this lands within 2x of the size
+        int largestSide = Math.max(options.outWidth, options.outHeight);
+        options.inSampleSize = 1;
+        while (largestSide / (options.inSampleSize * 2) >= sizePx) {
+            options.inSampleSize *= 2;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inPreferredConfig = Bitmap.Config.HARDWARE;
+        return BitmapFactory.decodeResource(resources, resId, options);
+    }
+}
@@ -0,0 +1,56 @@
+package team.tangible.app.services.models;
+
+import com.polidea.rxandroidble2.RxBleDevice;
+
+/**
+ * An immutable snapshot of what a scan has learned about one device
+ */
+public class ScannedDevice {
+    private final RxBleDevice mBleDevice;
+    private final String mName;
+    private final int mRssi;
+    private final long mLastSeenMs;
+    private final int mAdvertisementCount;
+    private final float mSmoothedRssi;
+
+    public ScannedDevice(RxBleDevice bleDevice, String name, int rssi, long lastSeenMs, int advertisementCount,
+                         float smoothedRssi) {
+        this.mBleDevice = bleDevice;
+        this.mName = name;
+        this.mRssi = rssi;
+        this.mLastSeenMs = lastSeenMs;
+        this.mAdvertisementCount = advertisementCount;
+        this.mSmoothedRssi = smoothedRssi;
+    }
+
+    public RxBleDevice getBleDevice() {
+        return mBleDevice;
+    }
+
+    public String getMacAddress() {
+        return mBleDevice.getMacAddress();
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public int getRssi() {
+        return mRssi;
+    }
+
+    public long getLastSeenMs() {
+        return mLastSeenMs;
+    }
+
+    public int getAdvertisementCount() {
+        return mAdvertisementCount;
+    }
+
+    /**
+     * The mean RSSI over the most recent advertisements, which is far steadier than {@link #getRssi()}
+     */
+    public float getSmoothedRssi() {
+        return mSmoothedRssi;
+    }
+}
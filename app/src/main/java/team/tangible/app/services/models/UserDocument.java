@@ -2,12 +2,25 @@ package team.tangible.app.services.models;
 
 public class UserDocument {
     private String mRoomId;
+    private String mJitsiRoom;
 
     public UserDocument(String roomId) {
+        this(roomId, null);
+    }
+
+    public UserDocument(String roomId, String jitsiRoom) {
         this.mRoomId = roomId;
+        this.mJitsiRoom = jitsiRoom;
     }
 
     public String getRoomId() {
         return mRoomId;
     }
+
+    /**
+     * @return the room's Jitsi room as denormalized onto the user document, or null if it was not
+     */
+    public String getJitsiRoom() {
+        return mJitsiRoom;
+    }
 }
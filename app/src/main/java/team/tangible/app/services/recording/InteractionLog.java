@@ -0,0 +1,286 @@
+package team.tangible.app.services.recording;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import team.tangible.app.services.EmojiService;
+import team.tangible.app.services.SocialTouchInteractionService;
+import team.tangible.app.services.ble.TangibleInteraction;
+
+/**
+ * The binary format interaction recordings are stored in. A log starts with a header, the magic
+ * bytes {@code "TGIL"} and a format version byte, followed by records that are only ever appended.
+ * Every record is a type byte and the milliseconds since the previous record as an unsigned
+ * varint, then:
+ *
+ * <ul>
+ * <li>session start: the wall clock time in milliseconds as a long, the following delays count
+ * from here</li>
+ * <li>touch: the {@link SocialTouchInteractionService.Interaction}'s ordinal, its intensity and
+ * its duration, a byte each</li>
+ * <li>emoji: the {@link EmojiService.Interaction}'s ordinal as a byte</li>
+ * <li>frame: a frame written to the link as is, like a stroke, multi-touch or press frame, as its
+ * length in a byte followed by its bytes</li>
+ * </ul>
+ *
+ * So a touch usually takes five bytes, an emoji three and a v2 frame eleven. Ordinals tie a log to the interaction
+ * enums it was recorded with, {@link #FORMAT_VERSION} must change when they are reordered.
+ */
+public class InteractionLog {
+    public static final int FORMAT_VERSION = 1;
+
+    private static final byte[] MAGIC = {'T', 'G', 'I', 'L'};
+    private static final int HEADER_LENGTH = MAGIC.length + 1;
+
+    private static final int RECORD_SESSION_START = 0;
+    private static final int RECORD_TOUCH = 1;
+    private static final int RECORD_EMOJI = 2;
+    private static final int RECORD_FRAME = 3;
+
+    private static final SocialTouchInteractionService.Interaction[] TOUCH_INTERACTIONS =
+            SocialTouchInteractionService.Interaction.values();
+    private static final EmojiService.Interaction[] EMOJI_INTERACTIONS = EmojiService.Interaction.values();
+
+    /**
+     * Appends to a log through a buffer, nothing reaches the file until the buffer fills up or the
+     * log is flushed. Not thread safe.
+     */
+    public static class Writer implements Closeable {
+        private final DataOutputStream mOutputStream;
+        private long mLastRecordTimeMs;
+
+        /**
+         * Opens the file for appending, writing the header if it is new or empty
+         */
+        public Writer(File file) throws IOException {
+            boolean isNew = file.length() == 0;
+            mOutputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+
+            if (isNew) {
+                mOutputStream.write(MAGIC);
+                mOutputStream.writeByte(FORMAT_VERSION);
+            }
+        }
+
+        /**
+         * @param timeMs a monotonic time, like {@link android.os.SystemClock#uptimeMillis()}, that
+         *               the following records are timed on
+         */
+        public void writeSessionStart(long timeMs, long wallClockTimeMs) throws IOException {
+            mLastRecordTimeMs = timeMs;
+            writeRecordStart(RECORD_SESSION_START, timeMs);
+            mOutputStream.writeLong(wallClockTimeMs);
+        }
+
+        public void writeTouch(SocialTouchInteractionService.Interaction interaction, int intensity, int duration,
+                               long timeMs) throws IOException {
+            writeRecordStart(RECORD_TOUCH, timeMs);
+            mOutputStream.writeByte(interaction.ordinal());
+            mOutputStream.writeByte(intensity);
+            mOutputStream.writeByte(duration);
+        }
+
+        public void writeEmoji(EmojiService.Interaction interaction, long timeMs) throws IOException {
+            writeRecordStart(RECORD_EMOJI, timeMs);
+            mOutputStream.writeByte(interaction.ordinal());
+        }
+
+        public void writeFrame(byte[] frame, long timeMs) throws IOException {
+            writeRecordStart(RECORD_FRAME, timeMs);
+            mOutputStream.writeByte(frame.length);
+            mOutputStream.write(frame);
+        }
+
+        public void flush() throws IOException {
+            mOutputStream.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            mOutputStream.close();
+        }
+
+        private void writeRecordStart(int recordType, long timeMs) throws IOException {
+            long delayMs = Math.max(0, timeMs - mLastRecordTimeMs);
+            mLastRecordTimeMs = timeMs;
+
+            mOutputStream.writeByte(recordType);
+            while ((delayMs & ~0x7FL) != 0) {
+                mOutputStream.writeByte((int) ((delayMs & 0x7F) | 0x80));
+                delayMs >>>= 7;
+            }
+            mOutputStream.writeByte((int) delayMs);
+        }
+    }
+
+    /**
+     * Reads a log's interactions and frames in order, through a buffer. The entry read last is
+     * held by the reader rather than allocated per record, except for a frame's bytes, which are
+     * new for every frame so they can be handed to the link. Not thread safe.
+     */
+    public static class Reader implements Closeable {
+        private final DataInputStream mInputStream;
+
+        private TangibleInteraction mInteraction;
+        private byte[] mFrame;
+        private int mIntensity;
+        private int mDuration;
+        private long mDelayMs;
+
+        public Reader(File file) throws IOException {
+            mInputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+            byte[] header = new byte[HEADER_LENGTH];
+            try {
+                mInputStream.readFully(header);
+            } catch (EOFException e) {
+                mInputStream.close();
+                throw new InvalidLogException("Not an interaction log: " + file);
+            }
+
+            if (!Arrays.equals(Arrays.copyOf(header, MAGIC.length), MAGIC)) {
+                mInputStream.close();
+                throw new InvalidLogException("Not an interaction log: " + file);
+            }
+            if (header[MAGIC.length] != FORMAT_VERSION) {
+                mInputStream.close();
+                throw new InvalidLogException("Unsupported interaction log version " + header[MAGIC.length]);
+            }
+        }
+
+        /**
+         * Moves on to the next interaction or frame. A record cut short, as when the app was killed while
+         * recording, ends the log.
+         *
+         * @return false at the end of the log
+         */
+        public boolean next() throws IOException {
+            long delayMs = 0;
+
+            try {
+                while (true) {
+                    int recordType = mInputStream.read();
+                    if (recordType == -1) {
+                        return false;
+                    }
+
+                    delayMs += readVarLong();
+
+                    switch (recordType) {
+                        case RECORD_SESSION_START:
+                            mInputStream.readLong();
+                            // Sessions play back to back, however far apart they were recorded
+                            delayMs = 0;
+                            break;
+
+                        case RECORD_TOUCH:
+                            mInteraction = TOUCH_INTERACTIONS[mInputStream.readUnsignedByte()];
+                            mFrame = null;
+                            mIntensity = mInputStream.readUnsignedByte();
+                            mDuration = mInputStream.readUnsignedByte();
+                            mDelayMs = delayMs;
+                            return true;
+
+                        case RECORD_EMOJI:
+                            mInteraction = EMOJI_INTERACTIONS[mInputStream.readUnsignedByte()];
+                            mFrame = null;
+                            mIntensity = -1;
+                            mDuration = -1;
+                            mDelayMs = delayMs;
+                            return true;
+
+                        case RECORD_FRAME:
+                            byte[] frame = new byte[mInputStream.readUnsignedByte()];
+                            mInputStream.readFully(frame);
+                            mInteraction = null;
+                            mFrame = frame;
+                            mIntensity = -1;
+                            mDuration = -1;
+                            mDelayMs = delayMs;
+                            return true;
+
+                        default:
+                            throw new InvalidLogException("Unknown interaction log record " + recordType);
+                    }
+                }
+            } catch (EOFException e) {
+                return false;
+            } catch (ArrayIndexOutOfBoundsException e) {
+                throw new InvalidLogException("Unknown interaction in log");
+            }
+        }
+
+        /**
+         * @return the current interaction, or null if the current record is a frame
+         */
+        public TangibleInteraction getInteraction() {
+            return mInteraction;
+        }
+
+        /**
+         * @return whether the current interaction is a touch, which carries an intensity and a
+         * duration, rather than an emoji
+         */
+        public boolean isTouch() {
+            return mInteraction instanceof SocialTouchInteractionService.Interaction;
+        }
+
+        public boolean isFrame() {
+            return mFrame != null;
+        }
+
+        /**
+         * @return the current frame, or null if the current record is an interaction
+         */
+        public byte[] getFrame() {
+            return mFrame;
+        }
+
+        public int getIntensity() {
+            return mIntensity;
+        }
+
+        public int getDuration() {
+            return mDuration;
+        }
+
+        /**
+         * @return how long after the previous record this one happened
+         */
+        public long getDelayMs() {
+            return mDelayMs;
+        }
+
+        @Override
+        public void close() throws IOException {
+            mInputStream.close();
+        }
+
+        private long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < Long.SIZE; shift += 7) {
+                int b = mInputStream.readUnsignedByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new InvalidLogException("Malformed delay in interaction log");
+        }
+    }
+
+    public static class InvalidLogException extends IOException {
+        public InvalidLogException(String message) {
+            super(message);
+        }
+    }
+}
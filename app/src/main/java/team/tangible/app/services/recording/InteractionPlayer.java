@@ -0,0 +1,78 @@
+package team.tangible.app.services.recording;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Completable;
+import io.reactivex.schedulers.Schedulers;
+import team.tangible.app.services.TangibleBleConnectionService;
+import timber.log.Timber;
+
+/**
+ * Plays back an {@link InteractionLog} through the same write path live interactions take, for
+ * load testing the BLE pipeline and the firmware with real sessions, and for comparing pipeline
+ * changes against the same input. Touches keep their recorded intensity and duration, and stroke,
+ * multi-touch and press frames are written as recorded. Emoji reactions keep their place in the
+ * timing but are not written, since live sessions never send them to the Tangible.
+ *
+ * Every touch played back is traced from the moment it is handed over, so the latency tracer
+ * measures the pipeline under the recorded load. Frames are not traced, as when they are live.
+ */
+public class InteractionPlayer {
+    /**
+     * Plays every interaction as soon as the previous one was handed over
+     */
+    public static final float AS_FAST_AS_POSSIBLE = Float.POSITIVE_INFINITY;
+
+    private final TangibleBleConnectionService mTangibleBleConnectionService;
+
+    public InteractionPlayer(TangibleBleConnectionService tangibleBleConnectionService) {
+        mTangibleBleConnectionService = tangibleBleConnectionService;
+    }
+
+    /**
+     * Reads the log as it plays, on the io scheduler. Timing is kept against the start of
+     * playback, so it does not drift however long the log is. Disposing stops playback.
+     *
+     * @param speed 1 for the recorded timing, 2 for twice as fast, and so on, or
+     *              {@link #AS_FAST_AS_POSSIBLE}
+     */
+    public Completable play(File file, float speed) {
+        if (!(speed > 0)) {
+            throw new IllegalArgumentException("Playback speed must be positive, was " + speed);
+        }
+
+        return Completable.create(emitter -> {
+            int writtenCount = 0;
+
+            try (InteractionLog.Reader reader = new InteractionLog.Reader(file)) {
+                long startNanos = System.nanoTime();
+                long offsetNanos = 0;
+
+                while (!emitter.isDisposed() && reader.next()) {
+                    offsetNanos += (long) (TimeUnit.MILLISECONDS.toNanos(reader.getDelayMs()) / speed);
+                    long waitNanos = startNanos + offsetNanos - System.nanoTime();
+                    if (waitNanos > 0) {
+                        TimeUnit.NANOSECONDS.sleep(waitNanos);
+                    }
+
+                    if (reader.isFrame()) {
+                        mTangibleBleConnectionService.writeFrame(reader.getFrame());
+                    } else if (reader.isTouch()) {
+                        mTangibleBleConnectionService.writeInteraction(reader.getInteraction(),
+                                reader.getIntensity(), reader.getDuration(), System.nanoTime());
+                    } else {
+                        continue;
+                    }
+                    writtenCount++;
+                }
+            } catch (InterruptedException e) {
+                // Disposed while waiting for the next interaction
+                return;
+            }
+
+            Timber.i("Played back %d writes from %s", writtenCount, file);
+            emitter.onComplete();
+        }).subscribeOn(Schedulers.io());
+    }
+}
@@ -0,0 +1,149 @@
+package team.tangible.app.services.recording;
+
+import android.os.SystemClock;
+
+import java.io.File;
+import java.io.IOException;
+
+import io.reactivex.Scheduler;
+import team.tangible.app.services.EmojiService;
+import team.tangible.app.services.SocialTouchInteractionService;
+import timber.log.Timber;
+
+/**
+ * Records the interactions and frames of a session to an {@link InteractionLog}, for playing back later with
+ * {@link InteractionPlayer}. Interactions are timed where they are recorded, on the main thread,
+ * and written in order on a single background worker, so the main thread never touches the file.
+ * Each recording appends a new session to the log.
+ *
+ * Recording is off unless the {@code INTERACTION_RECORDING_ENABLED} preference is set, so regular
+ * sessions leave no log behind.
+ */
+public class InteractionRecorder {
+    private final Scheduler.Worker mWorker;
+    private final boolean mIsEnabled;
+
+    private volatile boolean mIsRecording;
+    private InteractionLog.Writer mWriter;
+
+    /**
+     * @param scheduler where the log is written, one of its workers is kept for good
+     */
+    public InteractionRecorder(Scheduler scheduler, boolean isEnabled) {
+        mWorker = scheduler.createWorker();
+        mIsEnabled = isEnabled;
+    }
+
+    public boolean isRecording() {
+        return mIsRecording;
+    }
+
+    /**
+     * Starts a new session at the end of the log, unless already recording or recording is off
+     */
+    public void start(File file) {
+        if (!mIsEnabled || mIsRecording) {
+            return;
+        }
+        mIsRecording = true;
+
+        long startTimeMs = SystemClock.uptimeMillis();
+        long wallClockTimeMs = System.currentTimeMillis();
+        mWorker.schedule(() -> {
+            try {
+                mWriter = new InteractionLog.Writer(file);
+                mWriter.writeSessionStart(startTimeMs, wallClockTimeMs);
+                Timber.i("Recording interactions to %s", file);
+            } catch (IOException e) {
+                Timber.w(e, "Failed to start recording interactions to %s", file);
+                closeWriter();
+            }
+        });
+    }
+
+    public void record(SocialTouchInteractionService.Interaction interaction, int intensity, int duration) {
+        if (!mIsRecording) {
+            return;
+        }
+
+        long timeMs = SystemClock.uptimeMillis();
+        mWorker.schedule(() -> {
+            try {
+                if (mWriter != null) {
+                    mWriter.writeTouch(interaction, intensity, duration, timeMs);
+                }
+            } catch (IOException e) {
+                Timber.w(e, "Failed to record %s", interaction);
+                closeWriter();
+            }
+        });
+    }
+
+    public void record(EmojiService.Interaction interaction) {
+        if (!mIsRecording) {
+            return;
+        }
+
+        long timeMs = SystemClock.uptimeMillis();
+        mWorker.schedule(() -> {
+            try {
+                if (mWriter != null) {
+                    mWriter.writeEmoji(interaction, timeMs);
+                }
+            } catch (IOException e) {
+                Timber.w(e, "Failed to record %s", interaction);
+                closeWriter();
+            }
+        });
+    }
+
+    /**
+     * Records a frame written to the link as is. Frames are recorded by reference, so they must
+     * not be changed afterwards, like the pre-encoded frames the touch engines write.
+     */
+    public void record(byte[] frame) {
+        if (!mIsRecording) {
+            return;
+        }
+
+        long timeMs = SystemClock.uptimeMillis();
+        mWorker.schedule(() -> {
+            try {
+                if (mWriter != null) {
+                    mWriter.writeFrame(frame, timeMs);
+                }
+            } catch (IOException e) {
+                Timber.w(e, "Failed to record a frame");
+                closeWriter();
+            }
+        });
+    }
+
+    /**
+     * Ends the session, flushing whatever is still buffered to the log
+     */
+    public void stop() {
+        if (!mIsRecording) {
+            return;
+        }
+        mIsRecording = false;
+
+        mWorker.schedule(this::closeWriter);
+    }
+
+    /**
+     * Only ever called on the worker
+     */
+    private void closeWriter() {
+        if (mWriter == null) {
+            return;
+        }
+
+        try {
+            mWriter.close();
+        } catch (IOException e) {
+            Timber.w(e, "Failed to finish recording interactions");
+        }
+        mWriter = null;
+    }
+}
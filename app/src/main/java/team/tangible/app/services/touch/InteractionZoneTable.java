@@ -0,0 +1,98 @@
+package team.tangible.app.services.touch;
+
+import team.tangible.app.services.SocialTouchInteractionService.Actuator;
+import team.tangible.app.services.SocialTouchInteractionService.Interaction;
+
+/**
+ * Maps a touch straight to the interaction it triggers, whose frame is pre-encoded by the
+ * interaction's {@link team.tangible.app.services.ble.InteractionFrameTable}. The touch area is
+ * split into the same 2 x 3 grid of actuator zones as
+ * {@link team.tangible.app.services.SocialTouchInteractionService#getActuator(float, float, float, float)},
+ * but the zone boundaries are only recomputed when the touch area is resized, so classifying a
+ * touch allocates nothing.
+ *
+ * Zones are numbered column-major: {@code column * ROW_COUNT + row}, with the left column first
+ * and the back row at the top.
+ */
+public class InteractionZoneTable {
+    public static final int COLUMN_COUNT = 2;
+    public static final int ROW_COUNT = 3;
+    public static final int ZONE_COUNT = COLUMN_COUNT * ROW_COUNT;
+
+    public enum GestureType {
+        DOUBLE_TAP,
+        LONG_PRESS
+    }
+
+    private static final Actuator[] ZONE_ACTUATORS = {
+            Actuator.BACK_LEFT, Actuator.TOP_LEFT, Actuator.FRONT_LEFT,
+            Actuator.BACK_RIGHT, Actuator.TOP_RIGHT, Actuator.FRONT_RIGHT
+    };
+
+    private static final Interaction[][] ZONE_INTERACTIONS = {
+            /* DOUBLE_TAP */ {
+                    Interaction.DOUBLE_BACK_LEFT, Interaction.DOUBLE_TOP_LEFT, Interaction.DOUBLE_FRONT_LEFT,
+                    Interaction.DOUBLE_BACK_RIGHT, Interaction.DOUBLE_TOP_RIGHT, Interaction.DOUBLE_FRONT_RIGHT
+            },
+            /* LONG_PRESS */ {
+                    Interaction.LONG_BACK_LEFT, Interaction.LONG_TOP_LEFT, Interaction.LONG_FRONT_LEFT,
+                    Interaction.LONG_BACK_RIGHT, Interaction.LONG_TOP_RIGHT, Interaction.LONG_FRONT_RIGHT
+            }
+    };
+
+    private float mWidth;
+    private float mHeight;
+    private float mColumnBoundary;
+    private float mFirstRowBoundary;
+    private float mSecondRowBoundary;
+
+    public InteractionZoneTable(float width, float height) {
+        setSize(width, height);
+    }
+
+    /**
+     * Moves the zone boundaries to fit a touch area of the given size
+     *
+     * @return false if the size was unchanged
+     */
+    public boolean setSize(float width, float height) {
+        if (width == mWidth && height == mHeight) {
+            return false;
+        }
+
+        mWidth = width;
+        mHeight = height;
+        mColumnBoundary = width / 2;
+        mFirstRowBoundary = height / 3;
+        mSecondRowBoundary = 2 * height / 3;
+        return true;
+    }
+
+    /**
+     * @return the zone the point falls in. Points outside the touch area fall into the right
+     * column and the front row, the same as they do for
+     * {@link team.tangible.app.services.SocialTouchInteractionService#getActuator(float, float, float, float)}.
+     */
+    public int getZone(float x, float y) {
+        int column = x >= 0 && x < mColumnBoundary ? 0 : 1;
+
+        int row;
+        if (y >= 0 && y < mFirstRowBoundary) {
+            row = 0;
+        } else if (y >= mFirstRowBoundary && y < mSecondRowBoundary) {
+            row = 1;
+        } else {
+            row = 2;
+        }
+
+        return column * ROW_COUNT + row;
+    }
+
+    public Actuator getActuator(int zone) {
+        return ZONE_ACTUATORS[zone];
+    }
+
+    public Interaction getInteraction(GestureType gestureType, int zone) {
+        return ZONE_INTERACTIONS[gestureType.ordinal()][zone];
+    }
+}
@@ -0,0 +1,164 @@
+package team.tangible.app.services.touch;
+
+import android.os.Handler;
+import android.view.MotionEvent;
+
+import java.util.Locale;
+import java.util.function.BooleanSupplier;
+
+import team.tangible.app.services.ble.TangibleFrameCodec;
+
+/**
+ * Plays every zone under a finger at once when more than one finger is down, e.g. both sides of
+ * the Tangible squeezed together. The zones are sent as one bitmask frame, {@code "MT"} followed by
+ * the mask as two hex digits with bit {@code n} set for zone {@code n} of the
+ * {@link InteractionZoneTable}. That is one write however many fingers are down, rather than one
+ * per zone.
+ *
+ * Fingers rarely land in the same frame, so a new mask is only sent once it has held for
+ * {@code settleMs}. Lifting the last finger sends {@code "MT00"}. Touches with a single finger
+ * throughout are left to the gesture detector, and so are all touches while the connected
+ * firmware does not understand multi-touch frames.
+ *
+ * The mask is recomputed from all the pointers of each event, and every possible frame is encoded
+ * once up front, so tracking allocates nothing. Feed it touches, and it calls back, on the
+ * handler's thread.
+ */
+public class MultiTouchTracker {
+    private static final String MULTI_TOUCH_CODE_PREFIX = "MT";
+    private static final int NO_ZONES = 0;
+
+    private static final byte[][] MASK_FRAMES = new byte[1 << InteractionZoneTable.ZONE_COUNT][];
+
+    static {
+        for (int mask = 0; mask < MASK_FRAMES.length; mask++) {
+            MASK_FRAMES[mask] = TangibleFrameCodec.encode(
+                    MULTI_TOUCH_CODE_PREFIX + String.format(Locale.ROOT, "%02X", mask));
+        }
+    }
+
+    public interface OnMultiTouchFrameListener {
+        /**
+         * @param frame a shared, pre-encoded frame that must not be modified
+         */
+        void onMultiTouchFrame(byte[] frame);
+    }
+
+    private final InteractionZoneTable mInteractionZoneTable;
+    private final Handler mHandler;
+    private final BooleanSupplier mIsEnabled;
+    private final long mSettleMs;
+    private final Runnable mSendPendingMaskRunnable = this::sendPendingMask;
+
+    private OnMultiTouchFrameListener mOnMultiTouchFrameListener;
+
+    private boolean mIsMultiTouch;
+    private int mPendingMask = NO_ZONES;
+    private int mSentMask = NO_ZONES;
+
+    /**
+     * @param isEnabled whether the connected firmware understands multi-touch frames
+     * @param settleMs  how long a new set of zones must hold before it is sent
+     */
+    public MultiTouchTracker(InteractionZoneTable interactionZoneTable, Handler handler, BooleanSupplier isEnabled,
+                             long settleMs) {
+        mInteractionZoneTable = interactionZoneTable;
+        mHandler = handler;
+        mIsEnabled = isEnabled;
+        mSettleMs = settleMs;
+    }
+
+    public void setOnMultiTouchFrameListener(OnMultiTouchFrameListener onMultiTouchFrameListener) {
+        mOnMultiTouchFrameListener = onMultiTouchFrameListener;
+    }
+
+    /**
+     * @return whether more than one finger has been down since the last time all were lifted
+     */
+    public boolean isMultiTouch() {
+        return mIsMultiTouch;
+    }
+
+    public void onTouchEvent(MotionEvent event) {
+        int action = event.getActionMasked();
+        if (action == MotionEvent.ACTION_CANCEL) {
+            cancel();
+            return;
+        }
+
+        // The pointer going up is still part of the event that lifts it
+        int liftedIndex = action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_POINTER_UP
+                ? event.getActionIndex() : -1;
+
+        int mask = NO_ZONES;
+        int pointerCount = 0;
+        for (int i = 0; i < event.getPointerCount(); i++) {
+            if (i != liftedIndex) {
+                mask |= 1 << mInteractionZoneTable.getZone(event.getX(i), event.getY(i));
+                pointerCount++;
+            }
+        }
+
+        if (pointerCount > 1 && !mIsMultiTouch && mIsEnabled.getAsBoolean()) {
+            mIsMultiTouch = true;
+        }
+
+        if (!mIsMultiTouch) {
+            return;
+        }
+
+        if (pointerCount == 0) {
+            release();
+        } else {
+            setPendingMask(mask);
+        }
+    }
+
+    /**
+     * Releases any zones being played, e.g. when the view goes away mid-touch
+     */
+    public void cancel() {
+        if (mIsMultiTouch) {
+            release();
+        }
+    }
+
+    private void setPendingMask(int mask) {
+        if (mask == mPendingMask) {
+            return;
+        }
+
+        mPendingMask = mask;
+        mHandler.removeCallbacks(mSendPendingMaskRunnable);
+        mHandler.postDelayed(mSendPendingMaskRunnable, mSettleMs);
+    }
+
+    private void release() {
+        mIsMultiTouch = false;
+        mHandler.removeCallbacks(mSendPendingMaskRunnable);
+
+        // A tap with several fingers is over before it settles, but should still be felt
+        if (mSentMask == NO_ZONES && mPendingMask != NO_ZONES) {
+            send(mPendingMask);
+        }
+
+        mPendingMask = NO_ZONES;
+        if (mSentMask != NO_ZONES) {
+            send(NO_ZONES);
+        }
+    }
+
+    private void sendPendingMask() {
+        if (mPendingMask != mSentMask) {
+            send(mPendingMask);
+        }
+    }
+
+    private void send(int mask) {
+        mSentMask = mask;
+
+        if (mOnMultiTouchFrameListener != null) {
+            mOnMultiTouchFrameListener.onMultiTouchFrame(MASK_FRAMES[mask]);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package team.tangible.app.services.touch;
+
+import android.os.Handler;
+import android.view.MotionEvent;
+
+import java.util.function.BooleanSupplier;
+
+import team.tangible.app.services.ble.TangibleFrameCodec;
+
+/**
+ * Starts a long press on the Tangible at touch-down instead of after the platform's long-press
+ * timeout. Once a finger has rested in one zone for {@code stableMs} it sends a press-start frame
+ * for that zone, so the actuator can begin ramping up right away. The long press frame that
+ * follows if the press is held confirms it, and anything else (lifting early for a tap, moving
+ * past the touch slop into a stroke or fling, or another finger landing) sends a press-cancel
+ * frame.
+ *
+ * Frames are {@code "PR" + zone + 'S'} to start and {@code "PR" + zone + 'C'} to cancel, encoded
+ * once up front. Only firmware that understands them gets them, as decided by the
+ * {@code isEnabled} check at touch-down. Feed it touches, and it calls back, on the handler's
+ * thread.
+ */
+public class PredictivePressDispatcher {
+    private static final String PRESS_CODE_PREFIX = "PR";
+    private static final char PRESS_START = 'S';
+    private static final char PRESS_CANCEL = 'C';
+
+    private static final byte[][] PRESS_START_FRAMES = new byte[InteractionZoneTable.ZONE_COUNT][];
+    private static final byte[][] PRESS_CANCEL_FRAMES = new byte[InteractionZoneTable.ZONE_COUNT][];
+
+    static {
+        for (int zone = 0; zone < InteractionZoneTable.ZONE_COUNT; zone++) {
+            PRESS_START_FRAMES[zone] = TangibleFrameCodec.encode(PRESS_CODE_PREFIX + zone + PRESS_START);
+            PRESS_CANCEL_FRAMES[zone] = TangibleFrameCodec.encode(PRESS_CODE_PREFIX + zone + PRESS_CANCEL);
+        }
+    }
+
+    private enum State {
+        IDLE,
+        /** Down, waiting for the zone to hold still */
+        PENDING,
+        /** Press-start sent, waiting for the long press or a cancel */
+        STARTED,
+        /** The long press was recognized, nothing more to send for this touch */
+        CONFIRMED
+    }
+
+    public interface OnPressFrameListener {
+        /**
+         * @param frame a shared, pre-encoded frame that must not be modified
+         */
+        void onPressFrame(byte[] frame);
+    }
+
+    private final InteractionZoneTable mInteractionZoneTable;
+    private final Handler mHandler;
+    private final BooleanSupplier mIsEnabled;
+    private final float mTouchSlopSquaredPx;
+    private final long mStableMs;
+    private final Runnable mStartPressRunnable = this::startPress;
+
+    private OnPressFrameListener mOnPressFrameListener;
+
+    private State mState = State.IDLE;
+    private float mDownX;
+    private float mDownY;
+    private int mZone;
+
+    /**
+     * @param isEnabled whether the connected firmware understands press frames
+     * @param stableMs  how long a finger must rest in one zone before its press is started
+     */
+    public PredictivePressDispatcher(InteractionZoneTable interactionZoneTable, Handler handler, BooleanSupplier isEnabled,
+                                     float touchSlopPx, long stableMs) {
+        mInteractionZoneTable = interactionZoneTable;
+        mHandler = handler;
+        mIsEnabled = isEnabled;
+        mTouchSlopSquaredPx = touchSlopPx * touchSlopPx;
+        mStableMs = stableMs;
+    }
+
+    public void setOnPressFrameListener(OnPressFrameListener onPressFrameListener) {
+        mOnPressFrameListener = onPressFrameListener;
+    }
+
+    public void onTouchEvent(MotionEvent event) {
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                cancel();
+                if (mIsEnabled.getAsBoolean()) {
+                    mDownX = event.getX();
+                    mDownY = event.getY();
+                    mZone = mInteractionZoneTable.getZone(mDownX, mDownY);
+                    mState = State.PENDING;
+                    mHandler.postDelayed(mStartPressRunnable, mStableMs);
+                }
+                break;
+
+            case MotionEvent.ACTION_MOVE:
+                if (mState != State.PENDING && mState != State.STARTED) {
+                    break;
+                }
+
+                float dx = event.getX() - mDownX;
+                float dy = event.getY() - mDownY;
+                int zone = mInteractionZoneTable.getZone(event.getX(), event.getY());
+
+                if (dx * dx + dy * dy > mTouchSlopSquaredPx || (mState == State.STARTED && zone != mZone)) {
+                    cancel();
+                } else if (zone != mZone) {
+                    // Resting on a zone boundary, wait for it to settle on one side
+                    mZone = zone;
+                    mHandler.removeCallbacks(mStartPressRunnable);
+                    mHandler.postDelayed(mStartPressRunnable, mStableMs);
+                }
+                break;
+
+            case MotionEvent.ACTION_POINTER_DOWN:
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                cancel();
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Call when a gesture was recognized for the touch in progress, before its frame is written.
+     * A long press's frame confirms the press that was started. A double tap is recognized at its
+     * second touch-down, before a press could start, so that touch never starts one.
+     */
+    public void confirm() {
+        mHandler.removeCallbacks(mStartPressRunnable);
+        if (mState != State.IDLE) {
+            mState = State.CONFIRMED;
+        }
+    }
+
+    /**
+     * Cancels the press in progress, if it was started and not yet confirmed
+     */
+    public void cancel() {
+        mHandler.removeCallbacks(mStartPressRunnable);
+
+        if (mState == State.STARTED) {
+            send(PRESS_CANCEL_FRAMES[mZone]);
+        }
+        mState = State.IDLE;
+    }
+
+    private void startPress() {
+        if (mState == State.PENDING) {
+            mState = State.STARTED;
+            send(PRESS_START_FRAMES[mZone]);
+        }
+    }
+
+    private void send(byte[] frame) {
+        if (mOnPressFrameListener != null) {
+            mOnPressFrameListener.onPressFrame(frame);
+        }
+    }
+}
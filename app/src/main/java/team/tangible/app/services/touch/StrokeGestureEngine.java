@@ -0,0 +1,222 @@
+package team.tangible.app.services.touch;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.view.MotionEvent;
+
+import java.util.function.BooleanSupplier;
+
+import team.tangible.app.services.ble.TangibleFrameCodec;
+
+/**
+ * Turns a drag into a continuous stroke on the Tangible. Once a touch has moved further than the
+ * touch slop it becomes a stroke, and at a fixed rate the engine samples where the finger is and
+ * how fast it has been moving: the zone under the finger picks the actuator and the speed picks
+ * its intensity, so a faster stroke is felt more strongly.
+ *
+ * Frames only go out when the sampled actuator or intensity changed, and a stroke ends by setting
+ * the intensity back to zero. Each frame is {@code "ST" + zone + intensity}, with the zone as a
+ * decimal digit and the intensity as a hex digit, and every possible frame is encoded once up
+ * front. Touches are not followed at all while the connected firmware does not understand
+ * stroke frames, so they are left to the gesture detector.
+ *
+ * Work per touch event is constant: each new point, including the historical points batched into
+ * a move, only extends the running path length. Nothing is allocated per event or per sample.
+ * Feed it touches, and it calls back, on the handler's thread.
+ */
+public class StrokeGestureEngine {
+    public static final int INTENSITY_LEVEL_COUNT = 16;
+
+    private static final String STROKE_CODE_PREFIX = "ST";
+
+    /**
+     * Weight of the newest sample in the smoothed speed
+     */
+    private static final float SPEED_SMOOTHING = 0.5f;
+
+    /**
+     * How far the intensity must move before it is sent again, so jitter does not flood the link
+     */
+    private static final int INTENSITY_HYSTERESIS_LEVELS = 2;
+
+    private static final byte[][][] STROKE_FRAMES = new byte[InteractionZoneTable.ZONE_COUNT][INTENSITY_LEVEL_COUNT][];
+
+    static {
+        for (int zone = 0; zone < InteractionZoneTable.ZONE_COUNT; zone++) {
+            for (int level = 0; level < INTENSITY_LEVEL_COUNT; level++) {
+                STROKE_FRAMES[zone][level] = TangibleFrameCodec.encode(
+                        STROKE_CODE_PREFIX + zone + Character.toUpperCase(Character.forDigit(level, INTENSITY_LEVEL_COUNT)));
+            }
+        }
+    }
+
+    public interface OnStrokeFrameListener {
+        /**
+         * @param frame a shared, pre-encoded frame that must not be modified
+         */
+        void onStrokeFrame(byte[] frame);
+    }
+
+    private final InteractionZoneTable mInteractionZoneTable;
+    private final Handler mHandler;
+    private final BooleanSupplier mIsEnabled;
+    private final float mTouchSlopSquaredPx;
+    private final float mFullIntensitySpeedPxPerS;
+    private final long mSampleIntervalMs;
+    private final Runnable mSampleRunnable = this::sample;
+
+    private OnStrokeFrameListener mOnStrokeFrameListener;
+
+    private boolean mIsTracking;
+    private boolean mIsStroking;
+    private float mDownX;
+    private float mDownY;
+    private float mLastX;
+    private float mLastY;
+    private float mPathLengthSinceSamplePx;
+    private float mSmoothedSpeedPxPerS;
+    private long mLastSampleUptimeMs;
+    private long mNextSampleUptimeMs;
+
+    private int mSentZone = -1;
+    private int mSentLevel;
+
+    /**
+     * @param isEnabled                whether the connected firmware understands stroke frames
+     * @param touchSlopPx              how far a touch moves before it counts as a stroke
+     * @param fullIntensitySpeedPxPerS the stroke speed felt at full intensity
+     * @param sampleIntervalMs         how often a stroke is sampled
+     */
+    public StrokeGestureEngine(InteractionZoneTable interactionZoneTable, Handler handler, BooleanSupplier isEnabled,
+                               float touchSlopPx, float fullIntensitySpeedPxPerS, long sampleIntervalMs) {
+        mInteractionZoneTable = interactionZoneTable;
+        mHandler = handler;
+        mIsEnabled = isEnabled;
+        mTouchSlopSquaredPx = touchSlopPx * touchSlopPx;
+        mFullIntensitySpeedPxPerS = fullIntensitySpeedPxPerS;
+        mSampleIntervalMs = sampleIntervalMs;
+    }
+
+    public void setOnStrokeFrameListener(OnStrokeFrameListener onStrokeFrameListener) {
+        mOnStrokeFrameListener = onStrokeFrameListener;
+    }
+
+    /**
+     * @return whether the touch is currently being streamed as a stroke
+     */
+    public boolean isStroking() {
+        return mIsStroking;
+    }
+
+    public void onTouchEvent(MotionEvent event) {
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                mIsTracking = mIsEnabled.getAsBoolean();
+                mIsStroking = false;
+                mDownX = mLastX = event.getX();
+                mDownY = mLastY = event.getY();
+                mPathLengthSinceSamplePx = 0;
+                mSmoothedSpeedPxPerS = 0;
+                break;
+
+            case MotionEvent.ACTION_MOVE:
+                if (!mIsTracking) {
+                    break;
+                }
+
+                for (int i = 0; i < event.getHistorySize(); i++) {
+                    addPoint(event.getHistoricalX(i), event.getHistoricalY(i));
+                }
+                addPoint(event.getX(), event.getY());
+
+                if (!mIsStroking && distanceSquared(mDownX, mDownY, mLastX, mLastY) > mTouchSlopSquaredPx) {
+                    startStroke();
+                }
+                break;
+
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                mIsTracking = false;
+                if (mIsStroking) {
+                    endStroke();
+                }
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Ends any stroke in progress, e.g. when the view goes away mid-touch
+     */
+    public void cancel() {
+        mIsTracking = false;
+        if (mIsStroking) {
+            endStroke();
+        }
+    }
+
+    private void addPoint(float x, float y) {
+        mPathLengthSinceSamplePx += (float) Math.sqrt(distanceSquared(mLastX, mLastY, x, y));
+        mLastX = x;
+        mLastY = y;
+    }
+
+    private void startStroke() {
+        mIsStroking = true;
+        mSentZone = -1;
+        mSentLevel = 0;
+
+        mLastSampleUptimeMs = SystemClock.uptimeMillis();
+        mNextSampleUptimeMs = mLastSampleUptimeMs;
+        sample();
+    }
+
+    private void sample() {
+        long nowMs = SystemClock.uptimeMillis();
+        long elapsedMs = Math.max(1, nowMs - mLastSampleUptimeMs);
+
+        float speedPxPerS = mPathLengthSinceSamplePx * 1000f / elapsedMs;
+        mSmoothedSpeedPxPerS += SPEED_SMOOTHING * (speedPxPerS - mSmoothedSpeedPxPerS);
+        mPathLengthSinceSamplePx = 0;
+        mLastSampleUptimeMs = nowMs;
+
+        // A finger resting mid-stroke is still felt, at the lowest intensity
+        int level = Math.round(mSmoothedSpeedPxPerS / mFullIntensitySpeedPxPerS * (INTENSITY_LEVEL_COUNT - 1));
+        level = Math.max(1, Math.min(INTENSITY_LEVEL_COUNT - 1, level));
+        int zone = mInteractionZoneTable.getZone(mLastX, mLastY);
+
+        if (zone != mSentZone || Math.abs(level - mSentLevel) >= INTENSITY_HYSTERESIS_LEVELS) {
+            send(zone, level);
+        }
+
+        // Scheduled against the previous deadline rather than now, so the rate does not drift
+        mNextSampleUptimeMs = Math.max(mNextSampleUptimeMs + mSampleIntervalMs, nowMs + 1);
+        mHandler.postAtTime(mSampleRunnable, mNextSampleUptimeMs);
+    }
+
+    private void endStroke() {
+        mIsStroking = false;
+        mHandler.removeCallbacks(mSampleRunnable);
+
+        if (mSentZone >= 0 && mSentLevel != 0) {
+            send(mSentZone, 0);
+        }
+    }
+
+    private void send(int zone, int level) {
+        mSentZone = zone;
+        mSentLevel = level;
+
+        if (mOnStrokeFrameListener != null) {
+            mOnStrokeFrameListener.onStrokeFrame(STROKE_FRAMES[zone][level]);
+        }
+    }
+
+    private static float distanceSquared(float x1, float y1, float x2, float y2) {
+        float dx = x2 - x1;
+        float dy = y2 - y1;
+        return dx * dx + dy * dy;
+    }
+}
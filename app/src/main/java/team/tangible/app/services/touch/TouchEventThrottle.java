@@ -0,0 +1,41 @@
+package team.tangible.app.services.touch;
+
+import android.view.MotionEvent;
+
+/**
+ * Lets through every touch event except moves arriving sooner than the interval after the last
+ * move let through. Touch screens sampling faster than the display would otherwise have every
+ * listener downstream do its work, and possibly write to the link, several times per frame.
+ *
+ * Only put it in front of listeners that care where the fingers are now, since the next move let
+ * through carries the latest position. A skipped move's batched historical points are not passed
+ * on, so anything that follows the path a finger took, like {@link StrokeGestureEngine} or the
+ * gesture detector, has to be given every event.
+ */
+public class TouchEventThrottle {
+    private final long mMoveIntervalMs;
+
+    private long mLastMoveTimeMs = Long.MIN_VALUE;
+
+    public TouchEventThrottle(long moveIntervalMs) {
+        mMoveIntervalMs = moveIntervalMs;
+    }
+
+    /**
+     * @return whether the event should be handled
+     */
+    public boolean shouldDispatch(MotionEvent event) {
+        if (event.getActionMasked() != MotionEvent.ACTION_MOVE) {
+            mLastMoveTimeMs = Long.MIN_VALUE;
+            return true;
+        }
+
+        long eventTimeMs = event.getEventTime();
+        if (mLastMoveTimeMs != Long.MIN_VALUE && eventTimeMs - mLastMoveTimeMs < mMoveIntervalMs) {
+            return false;
+        }
+
+        mLastMoveTimeMs = eventTimeMs;
+        return true;
+    }
+}
@@ -1,6 +1,7 @@
 package team.tangible.app.utils;
 
 import android.app.Activity;
+import android.util.TypedValue;
 import android.view.View;
 
 public class ActivityUtils {
@@ -20,4 +21,9 @@ public class ActivityUtils {
             | View.SYSTEM_UI_FLAG_HIDE_NAVIGATION
             | View.SYSTEM_UI_FLAG_FULLSCREEN);
     }
+
+    public static int dpToPx(Activity activity, float dp) {
+        return Math.round(TypedValue.applyDimension(
+                TypedValue.COMPLEX_UNIT_DIP, dp, activity.getResources().getDisplayMetrics()));
+    }
 }
@@ -0,0 +1,178 @@
+package team.tangible.app.utils;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Date;
+import java.util.Locale;
+
+import timber.log.Timber;
+
+/**
+ * Measures the touch-to-actuator path one stage at a time. A trace starts at the
+ * {@link android.view.MotionEvent} that led to a gesture and is marked as it passes each
+ * {@link Stage}. Every mark records both how long that stage took and the total time since the
+ * touch, in lock-free {@link LatencyHistogram}s, so marking is safe from any thread.
+ *
+ * The trace being built on the main thread (touch, gesture) is held here. Once the interaction is
+ * handed off its origin travels with it, through the BLE dispatch thread, the write pipeline and
+ * the reliable sender, which mark the later stages with {@link #record(Stage, long, long)}.
+ *
+ * All timestamps are {@link System#nanoTime()}, which runs on the same clock as
+ * {@link android.view.MotionEvent#getEventTime()}.
+ */
+public class InteractionLatencyTracer {
+    /**
+     * Origin of a frame that was not caused by a traced touch
+     */
+    public static final long NO_TRACE = 0;
+
+    public enum Stage {
+        /** From the MotionEvent's timestamp to it reaching the touch listener */
+        INPUT,
+        /** Until the gesture detector recognized a gesture */
+        GESTURE,
+        /** Until the interaction reached the BLE dispatch thread */
+        DISPATCH,
+        /** Until the frame for the interaction was ready */
+        ENCODE,
+        /** Until the frame was accepted by the write pipeline */
+        QUEUE,
+        /** Until the write carrying the frame completed */
+        WRITE,
+        /**
+         * Until the peripheral acked the frame, counted from when it was first sent. Only recorded
+         * with reliable delivery on.
+         */
+        ACK
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+
+    private final LatencyHistogram[] mStageHistograms = new LatencyHistogram[STAGES.length];
+    private final LatencyHistogram[] mSinceTouchHistograms = new LatencyHistogram[STAGES.length];
+
+    private long mCurrentOriginNanos = NO_TRACE;
+    private long mCurrentStageStartNanos;
+
+    public InteractionLatencyTracer() {
+        for (int i = 0; i < STAGES.length; i++) {
+            mStageHistograms[i] = new LatencyHistogram();
+            mSinceTouchHistograms[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Starts a new trace on the main thread, replacing any unfinished one. Meant for the events a
+     * gesture starts with, later events of the same gesture should not restart it.
+     *
+     * @param eventTimeMs {@link android.view.MotionEvent#getEventTime()} of the touch
+     */
+    public void beginTrace(long eventTimeMs) {
+        mCurrentOriginNanos = eventTimeMs * 1_000_000L;
+        mCurrentStageStartNanos = mCurrentOriginNanos;
+        mark(Stage.INPUT);
+    }
+
+    /**
+     * Marks a stage of the trace currently being built on the main thread, if there is one
+     */
+    public void mark(Stage stage) {
+        if (mCurrentOriginNanos != NO_TRACE) {
+            mCurrentStageStartNanos = record(stage, mCurrentOriginNanos, mCurrentStageStartNanos);
+        }
+    }
+
+    /**
+     * Moves the current trace, if there is one, past time the user rather than the app spent, such
+     * as holding a long press until it is recognized, so it is not counted as latency
+     */
+    public void skip(long durationMs) {
+        if (mCurrentOriginNanos != NO_TRACE) {
+            mCurrentOriginNanos += durationMs * 1_000_000L;
+            mCurrentStageStartNanos += durationMs * 1_000_000L;
+        }
+    }
+
+    /**
+     * Stops attributing marks to the current trace, once its frame has been handed off
+     */
+    public void endTrace() {
+        mCurrentOriginNanos = NO_TRACE;
+    }
+
+    /**
+     * @return the origin of the trace currently being built on the main thread, or
+     * {@link #NO_TRACE}
+     */
+    public long getCurrentOriginNanos() {
+        return mCurrentOriginNanos;
+    }
+
+    /**
+     * @return when the trace currently being built on the main thread was last marked
+     */
+    public long getCurrentStageStartNanos() {
+        return mCurrentStageStartNanos;
+    }
+
+    /**
+     * Records a stage of any trace, from any thread
+     *
+     * @param originNanos     when the touch happened, nothing is recorded for {@link #NO_TRACE}
+     * @param stageStartNanos when the previous stage was marked
+     * @return now, to be passed as the start of the next stage
+     */
+    public long record(Stage stage, long originNanos, long stageStartNanos) {
+        long nowNanos = System.nanoTime();
+
+        if (originNanos != NO_TRACE) {
+            mStageHistograms[stage.ordinal()].recordNanos(nowNanos - stageStartNanos);
+            mSinceTouchHistograms[stage.ordinal()].recordNanos(nowNanos - originNanos);
+        }
+
+        return nowNanos;
+    }
+
+    public LatencyHistogram getStageHistogram(Stage stage) {
+        return mStageHistograms[stage.ordinal()];
+    }
+
+    public LatencyHistogram getSinceTouchHistogram(Stage stage) {
+        return mSinceTouchHistograms[stage.ordinal()];
+    }
+
+    public void reset() {
+        for (int i = 0; i < STAGES.length; i++) {
+            mStageHistograms[i].reset();
+            mSinceTouchHistograms[i].reset();
+        }
+    }
+
+    public void dumpToLogcat() {
+        for (Stage stage : STAGES) {
+            if (getStageHistogram(stage).getCount() > 0) {
+                Timber.i("%s", formatStage(stage));
+            }
+        }
+    }
+
+    /**
+     * Appends the current percentiles of every stage to the file, one line per stage
+     */
+    public void dumpToFile(File file) throws IOException {
+        try (Writer writer = new FileWriter(file, true)) {
+            writer.write("# " + new Date() + "\n");
+            for (Stage stage : STAGES) {
+                writer.write(formatStage(stage));
+                writer.write('\n');
+            }
+        }
+    }
+
+    private String formatStage(Stage stage) {
+        return String.format(Locale.ROOT, "%-8s stage: %s | since touch: %s",
+                stage, getStageHistogram(stage).getSummary(), getSinceTouchHistogram(stage).getSummary());
+    }
+}
@@ -0,0 +1,105 @@
+package team.tangible.app.utils;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size, lock-free latency histogram. Values are bucketed logarithmically with eight linear
+ * sub-buckets per power of two, so percentiles are accurate to within 12.5% from microseconds to
+ * minutes while recording is a single atomic increment that can be done from any thread.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = 64 * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+
+    /**
+     * @param latencyNanos negative values are counted as zero
+     */
+    public void recordNanos(long latencyNanos) {
+        mCounts.incrementAndGet(getBucketIndex(Math.max(0, latencyNanos / 1000)));
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            count += mCounts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the upper bound of the bucket holding the percentile, or 0 if nothing was recorded.
+     * Reads are not atomic across buckets, so a percentile taken while recording is approximate.
+     */
+    public double getPercentileMs(double percentile) {
+        long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long cumulativeCount = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            cumulativeCount += mCounts.get(i);
+            if (cumulativeCount >= rank) {
+                return getBucketUpperBoundMicros(i) / 1000.0;
+            }
+        }
+        return getBucketUpperBoundMicros(BUCKET_COUNT - 1) / 1000.0;
+    }
+
+    /**
+     * Sets this histogram to what {@code source} recorded since {@code baseline}, and moves
+     * {@code baseline} up to {@code source}. Repeated calls give the percentiles of each interval
+     * of a histogram that keeps accumulating, without resetting it under its other readers.
+     */
+    public void setToInterval(LatencyHistogram source, LatencyHistogram baseline) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long count = source.mCounts.get(i);
+            mCounts.set(i, count - baseline.mCounts.get(i));
+            baseline.mCounts.set(i, count);
+        }
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mCounts.set(i, 0);
+        }
+    }
+
+    /**
+     * @return e.g. "n=120 p50=12.0ms p95=30.0ms p99=44.0ms"
+     */
+    public String getSummary() {
+        return String.format(Locale.ROOT, "n=%d p50=%.1fms p95=%.1fms p99=%.1fms",
+                getCount(), getPercentileMs(50), getPercentileMs(95), getPercentileMs(99));
+    }
+
+    private static int getBucketIndex(long micros) {
+        if (micros < SUB_BUCKET_COUNT) {
+            return (int) micros;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    private static long getBucketLowerBoundMicros(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+
+        int exponent = index / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+        int subBucket = index % SUB_BUCKET_COUNT;
+        return (long) (SUB_BUCKET_COUNT + subBucket) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    private static long getBucketUpperBoundMicros(int index) {
+        return index + 1 < BUCKET_COUNT ? getBucketLowerBoundMicros(index + 1) : Long.MAX_VALUE;
+    }
+}
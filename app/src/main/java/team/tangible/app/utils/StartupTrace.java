@@ -0,0 +1,58 @@
+package team.tangible.app.utils;
+
+import android.app.Activity;
+import android.os.SystemClock;
+import android.os.Trace;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import timber.log.Timber;
+
+/**
+ * Records how many instances of each injected type the object graph builds and how long each
+ * activity spends being injected. Injections also show up as "inject:ActivityName" sections in a
+ * systrace/Perfetto capture.
+ */
+public class StartupTrace {
+    private static final Map<String, AtomicInteger> sInstanceCounts = new ConcurrentHashMap<>();
+
+    /**
+     * Call from a @Provides method on the object it is about to return
+     */
+    public static <T> T recordInstance(T instance) {
+        String typeName = instance.getClass().getSimpleName();
+        int count = sInstanceCounts.computeIfAbsent(typeName, key -> new AtomicInteger()).incrementAndGet();
+        Timber.d("Created %s #%d", typeName, count);
+        return instance;
+    }
+
+    /**
+     * Runs the injection for an activity and logs how long it took along with the instance counts
+     * so far
+     */
+    public static void traceInjection(Activity activity, Runnable injection) {
+        String activityName = activity.getClass().getSimpleName();
+
+        Trace.beginSection("inject:" + activityName);
+        long startNanos = SystemClock.elapsedRealtimeNanos();
+        try {
+            injection.run();
+        } finally {
+            long durationNanos = SystemClock.elapsedRealtimeNanos() - startNanos;
+            Trace.endSection();
+            Timber.i("Injected %s in %.2f ms, instances created so far: %s",
+                    activityName, durationNanos / 1e6, getInstanceCounts());
+        }
+    }
+
+    public static Map<String, Integer> getInstanceCounts() {
+        Map<String, Integer> instanceCounts = new TreeMap<>();
+        for (Map.Entry<String, AtomicInteger> entry : sInstanceCounts.entrySet()) {
+            instanceCounts.put(entry.getKey(), entry.getValue().get());
+        }
+        return instanceCounts;
+    }
+}
@@ -0,0 +1,192 @@
+package team.tangible.app.services.ble;
+
+import com.polidea.rxandroidble2.RxBleConnection;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.subjects.SingleSubject;
+import team.tangible.app.utils.InteractionLatencyTracer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drives the pipeline against a stub connection whose writes only complete when the test says so
+ */
+public class BleWritePipelineTest {
+    private static final int MAX_QUEUE_DEPTH = 4;
+
+    /**
+     * Large enough that packed test frames always fit in a single write
+     */
+    private static final BleLinkFraming FRAMING = new BleLinkFraming(BleLinkFraming.REQUESTED_MTU, null);
+
+    private static final byte[] FLING_UP = TangibleFrameCodec.encode("FLUP");
+    private static final byte[] FLING_DOWN = TangibleFrameCodec.encode("FLDN");
+    private static final byte[] FLING_LEFT = TangibleFrameCodec.encode("FLLT");
+    private static final byte[] FLING_RIGHT = TangibleFrameCodec.encode("FLRT");
+
+    private final List<byte[]> mWrites = new ArrayList<>();
+    private final List<SingleSubject<byte[]>> mPendingWrites = new ArrayList<>();
+
+    private long mNowMs = 1000;
+    private BleWritePipeline mPipeline;
+    private RxBleConnection mConnection;
+
+    @Before
+    public void setUp() {
+        mPipeline = new BleWritePipeline(MAX_QUEUE_DEPTH, new InteractionLatencyTracer(), Schedulers.trampoline(),
+                () -> mNowMs);
+        mConnection = createStubConnection();
+    }
+
+    @Test
+    public void framesQueuedDuringAWrite_arePackedIntoTheNext() {
+        mPipeline.setConnection(mConnection, FRAMING);
+
+        mPipeline.enqueue(FLING_UP);
+        mPipeline.enqueue(FLING_DOWN);
+        mPipeline.enqueue(FLING_LEFT);
+
+        assertEquals(1, mWrites.size());
+        assertArrayEquals(FLING_UP, mWrites.get(0));
+
+        completeWrite(0);
+
+        assertEquals(2, mWrites.size());
+        assertArrayEquals(concat(FLING_DOWN, FLING_LEFT), mWrites.get(1));
+
+        completeWrite(1);
+        assertEquals(3, mPipeline.getWrittenFrameCount());
+        assertEquals(2, mPipeline.getWriteCount());
+        assertEquals(0, mPipeline.getQueueDepth());
+    }
+
+    @Test
+    public void packingDisabled_writesOneFrameAtATime() {
+        mPipeline.setFramePackingEnabled(false);
+        mPipeline.setConnection(mConnection, FRAMING);
+
+        mPipeline.enqueue(FLING_UP);
+        mPipeline.enqueue(FLING_DOWN);
+        mPipeline.enqueue(FLING_LEFT);
+        completeWrite(0);
+
+        assertArrayEquals(FLING_DOWN, mWrites.get(1));
+        assertEquals(1, mPipeline.getQueueDepth());
+    }
+
+    @Test
+    public void identicalFrames_coalesceWithinTheWindow() {
+        mPipeline.setCoalescingWindowMs(150);
+        mPipeline.setConnection(mConnection, FRAMING);
+
+        assertTrue(mPipeline.enqueue(FLING_UP));
+        mNowMs += 150;
+        assertFalse(mPipeline.enqueue(FLING_UP));
+        assertEquals(1, mPipeline.getCoalescedFrameCount());
+
+        // The window counts from the last frame accepted, not the last one offered
+        mNowMs += 1;
+        assertTrue(mPipeline.enqueue(FLING_UP));
+
+        // Only consecutive duplicates coalesce
+        assertTrue(mPipeline.enqueue(FLING_DOWN));
+        assertTrue(mPipeline.enqueue(FLING_UP));
+
+        assertEquals(4, mPipeline.getEnqueuedFrameCount());
+    }
+
+    @Test
+    public void fullQueue_dropsTheOldestFrame() {
+        // Nothing is written while detached, so everything stays queued
+        mPipeline.enqueue(FLING_UP);
+        mPipeline.enqueue(FLING_DOWN);
+        mPipeline.enqueue(FLING_LEFT);
+        mPipeline.enqueue(FLING_RIGHT);
+        mPipeline.enqueue(FLING_UP);
+
+        assertEquals(MAX_QUEUE_DEPTH, mPipeline.getQueueDepth());
+        assertEquals(1, mPipeline.getDroppedFrameCount());
+
+        mPipeline.setConnection(mConnection, FRAMING);
+        assertArrayEquals(concat(FLING_DOWN, FLING_LEFT, FLING_RIGHT, FLING_UP), mWrites.get(0));
+    }
+
+    @Test
+    public void detaching_dropsQueuedFramesAndIgnoresTheInFlightWrite() {
+        mPipeline.setConnection(mConnection, FRAMING);
+        mPipeline.enqueue(FLING_UP);
+        mPipeline.enqueue(FLING_DOWN);
+
+        mPipeline.setConnection(null, null);
+        assertEquals(0, mPipeline.getQueueDepth());
+        assertEquals(1, mPipeline.getDroppedFrameCount());
+
+        completeWrite(0);
+        assertEquals(0, mPipeline.getWriteCount());
+    }
+
+    @Test
+    public void failedWrite_dropsItsFramesAndMovesOn() {
+        List<Throwable> errors = new ArrayList<>();
+        mPipeline.setOnWriteErrorListener(errors::add);
+        mPipeline.setConnection(mConnection, FRAMING);
+
+        mPipeline.enqueue(FLING_UP);
+        mPipeline.enqueue(FLING_DOWN);
+        mPendingWrites.get(0).onError(new IllegalStateException("GATT error"));
+
+        assertEquals(1, errors.size());
+        assertEquals(1, mPipeline.getFailedWriteCount());
+        assertEquals(1, mPipeline.getDroppedFrameCount());
+        assertArrayEquals(FLING_DOWN, mWrites.get(1));
+    }
+
+    private void completeWrite(int index) {
+        mPendingWrites.get(index).onSuccess(mWrites.get(index));
+    }
+
+    private RxBleConnection createStubConnection() {
+        return (RxBleConnection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{RxBleConnection.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "writeCharacteristic":
+                            assertTrue(args[0] instanceof UUID);
+                            SingleSubject<byte[]> write = SingleSubject.create();
+                            mWrites.add((byte[]) args[1]);
+                            mPendingWrites.add(write);
+                            return write;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        case "toString":
+                            return "StubConnection";
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private static byte[] concat(byte[]... frames) {
+        int length = 0;
+        for (byte[] frame : frames) {
+            length += frame.length;
+        }
+
+        byte[] payload = new byte[length];
+        int offset = 0;
+        for (byte[] frame : frames) {
+            System.arraycopy(frame, 0, payload, offset, frame.length);
+            offset += frame.length;
+        }
+        return payload;
+    }
+}
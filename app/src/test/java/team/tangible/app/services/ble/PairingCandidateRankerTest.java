@@ -0,0 +1,119 @@
+package team.tangible.app.services.ble;
+
+import com.polidea.rxandroidble2.RxBleDevice;
+
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.List;
+
+import team.tangible.app.services.models.ScannedDevice;
+
+import static org.junit.Assert.*;
+
+public class PairingCandidateRankerTest {
+    private static final int FULL_WINDOW = 8;
+
+    private final PairingCandidateRanker mRanker = new PairingCandidateRanker();
+
+    @Test
+    public void newDevices_areOrderedByScore() {
+        ScannedDevice far = device("AA", -80);
+        ScannedDevice near = device("BB", -50);
+        ScannedDevice named = device("CC", "Tangible", -65, FULL_WINDOW);
+
+        assertEquals(Arrays.asList("BB", "CC", "AA"), macAddresses(mRanker.rank(Arrays.asList(far, near, named))));
+    }
+
+    @Test
+    public void deviceWithinTheMargin_keepsItsPlace() {
+        mRanker.rank(Arrays.asList(device("AA", -60), device("BB", -70)));
+
+        // BB now scores higher, but by no more than the margin
+        List<ScannedDevice> ranked = mRanker.rank(Arrays.asList(device("AA", -60), device("BB", -54)));
+
+        assertEquals(Arrays.asList("AA", "BB"), macAddresses(ranked));
+    }
+
+    @Test
+    public void deviceBeyondTheMargin_movesUp() {
+        mRanker.rank(Arrays.asList(device("AA", -60), device("BB", -65), device("CC", -70)));
+
+        // CC clearly beats both, BB still only narrowly beats AA
+        List<ScannedDevice> ranked = mRanker.rank(Arrays.asList(device("AA", -60), device("BB", -57), device("CC", -45)));
+
+        assertEquals(Arrays.asList("CC", "AA", "BB"), macAddresses(ranked));
+    }
+
+    @Test
+    public void newDevice_isPlacedAfterShownDevicesUntilItClearlyOutscoresThem() {
+        mRanker.rank(Arrays.asList(device("AA", -60)));
+
+        assertEquals(Arrays.asList("AA", "BB"), macAddresses(mRanker.rank(Arrays.asList(device("BB", -58), device("AA", -60)))));
+        assertEquals(Arrays.asList("CC", "AA", "BB"),
+                macAddresses(mRanker.rank(Arrays.asList(device("BB", -58), device("AA", -60), device("CC", -40)))));
+    }
+
+    @Test
+    public void clearWinner_isFound() {
+        ScannedDevice winner = device("AA", null, -50, FULL_WINDOW);
+
+        assertSame(winner, mRanker.findClearWinner(Arrays.asList(device("BB", -66), winner)));
+        assertSame(winner, mRanker.findClearWinner(Arrays.asList(winner)));
+    }
+
+    @Test
+    public void noWinner_beforeTheRssiWindowIsFull() {
+        ScannedDevice candidate = device("AA", null, -50, FULL_WINDOW - 1);
+
+        assertNull(mRanker.findClearWinner(Arrays.asList(candidate, device("BB", -80))));
+    }
+
+    @Test
+    public void noWinner_whenNotCloseBy() {
+        // The name boost gives it the lead, but the signal itself is too weak
+        ScannedDevice candidate = device("AA", "Tangible", -66, FULL_WINDOW);
+
+        assertNull(mRanker.findClearWinner(Arrays.asList(candidate, device("BB", -90))));
+    }
+
+    @Test
+    public void noWinner_withoutAClearLead() {
+        ScannedDevice candidate = device("AA", null, -50, FULL_WINDOW);
+
+        assertNull(mRanker.findClearWinner(Arrays.asList(candidate, device("BB", -64))));
+        assertNull(mRanker.findClearWinner(Arrays.asList()));
+    }
+
+    private static ScannedDevice device(String macAddress, float smoothedRssi) {
+        return device(macAddress, null, smoothedRssi, FULL_WINDOW);
+    }
+
+    private static ScannedDevice device(String macAddress, String name, float smoothedRssi, int advertisementCount) {
+        RxBleDevice bleDevice = (RxBleDevice) Proxy.newProxyInstance(PairingCandidateRankerTest.class.getClassLoader(),
+                new Class<?>[]{RxBleDevice.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getMacAddress":
+                            return macAddress;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        case "toString":
+                            return macAddress;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        return new ScannedDevice(bleDevice, name, Math.round(smoothedRssi), 0, advertisementCount, smoothedRssi);
+    }
+
+    private static List<String> macAddresses(List<ScannedDevice> scannedDevices) {
+        String[] macAddresses = new String[scannedDevices.size()];
+        for (int i = 0; i < macAddresses.length; i++) {
+            macAddresses[i] = scannedDevices.get(i).getMacAddress();
+        }
+        return Arrays.asList(macAddresses);
+    }
+}
@@ -0,0 +1,151 @@
+package team.tangible.app.services.ble;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.schedulers.TestScheduler;
+import team.tangible.app.utils.InteractionLatencyTracer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drives the sender against a pipeline that only records what it is given, with retransmit
+ * timeouts on a {@link TestScheduler} whose clock the sender also reads
+ */
+public class ReliableFrameSenderTest {
+    private static final int WINDOW_SIZE = 2;
+    private static final long RETRANSMIT_TIMEOUT_MS = 250;
+    private static final int MAX_RETRANSMITS = 3;
+
+    private static final byte[] FLING_UP = TangibleFrameCodec.encode("FLUP");
+    private static final byte[] FLING_DOWN = TangibleFrameCodec.encode("FLDN");
+    private static final byte[] FLING_LEFT = TangibleFrameCodec.encode("FLLT");
+
+    private final List<byte[]> mEnqueuedFrames = new ArrayList<>();
+    private final TestScheduler mScheduler = new TestScheduler();
+    private ReliableFrameSender mSender;
+
+    @Before
+    public void setUp() {
+        InteractionLatencyTracer latencyTracer = new InteractionLatencyTracer();
+        BleWritePipeline pipeline = new BleWritePipeline(4, latencyTracer, Schedulers.trampoline(), () -> 0) {
+            @Override
+            public synchronized boolean enqueue(byte[] frame, long originNanos) {
+                mEnqueuedFrames.add(frame);
+                return true;
+            }
+        };
+        mSender = new ReliableFrameSender(pipeline, WINDOW_SIZE, latencyTracer, mScheduler,
+                () -> mScheduler.now(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void fullWindow_holdsFramesBackUntilAnAck() {
+        mSender.send(FLING_UP, InteractionLatencyTracer.NO_TRACE);
+        mSender.send(FLING_DOWN, InteractionLatencyTracer.NO_TRACE);
+        mSender.send(FLING_LEFT, InteractionLatencyTracer.NO_TRACE);
+
+        assertEquals(2, mEnqueuedFrames.size());
+        assertEquals(WINDOW_SIZE, mSender.getInFlightCount());
+        assertEquals("FLUP", getCode(mEnqueuedFrames.get(0)));
+        assertEquals(0, getSequenceNumber(mEnqueuedFrames.get(0)));
+        assertEquals(1, getSequenceNumber(mEnqueuedFrames.get(1)));
+
+        mSender.onAck(0);
+
+        assertEquals(3, mEnqueuedFrames.size());
+        assertEquals("FLLT", getCode(mEnqueuedFrames.get(2)));
+        assertEquals(2, getSequenceNumber(mEnqueuedFrames.get(2)));
+        assertEquals(WINDOW_SIZE, mSender.getInFlightCount());
+        assertEquals(1, mSender.getAckedFrameCount());
+    }
+
+    @Test
+    public void outOfOrderAndDuplicateAcks_releaseEachFrameOnce() {
+        mSender.send(FLING_UP, InteractionLatencyTracer.NO_TRACE);
+        mSender.send(FLING_DOWN, InteractionLatencyTracer.NO_TRACE);
+
+        mSender.onAck(1);
+        assertEquals(1, mSender.getInFlightCount());
+        mSender.onAck(1);
+        assertEquals(1, mSender.getInFlightCount());
+        mSender.onAck(0);
+        mSender.onAck(0);
+
+        assertEquals(0, mSender.getInFlightCount());
+        assertEquals(2, mSender.getAckedFrameCount());
+        assertEquals(2, mSender.getLatencyHistogram().getCount());
+        assertEquals(0, mSender.getFailedFrameCount());
+    }
+
+    @Test
+    public void unackedFrame_isRetransmittedThenGivenUpOn() {
+        mSender.send(FLING_UP, InteractionLatencyTracer.NO_TRACE);
+
+        mScheduler.advanceTimeBy(RETRANSMIT_TIMEOUT_MS - 50, TimeUnit.MILLISECONDS);
+        assertEquals(1, mEnqueuedFrames.size());
+
+        mScheduler.advanceTimeBy(50, TimeUnit.MILLISECONDS);
+        assertEquals(2, mEnqueuedFrames.size());
+        assertArrayEquals(mEnqueuedFrames.get(0), mEnqueuedFrames.get(1));
+
+        mScheduler.advanceTimeBy(RETRANSMIT_TIMEOUT_MS * MAX_RETRANSMITS, TimeUnit.MILLISECONDS);
+
+        assertEquals(1 + MAX_RETRANSMITS, mEnqueuedFrames.size());
+        assertEquals(MAX_RETRANSMITS, mSender.getRetransmitCount());
+        assertEquals(1, mSender.getFailedFrameCount());
+        assertEquals(0, mSender.getInFlightCount());
+
+        // Nothing in flight, so nothing more is sent
+        mScheduler.advanceTimeBy(RETRANSMIT_TIMEOUT_MS * 4, TimeUnit.MILLISECONDS);
+        assertEquals(1 + MAX_RETRANSMITS, mEnqueuedFrames.size());
+    }
+
+    @Test
+    public void ackBeforeTheTimeout_preventsARetransmit() {
+        mSender.send(FLING_UP, InteractionLatencyTracer.NO_TRACE);
+        mScheduler.advanceTimeBy(RETRANSMIT_TIMEOUT_MS - 50, TimeUnit.MILLISECONDS);
+        mSender.onAck(0);
+
+        mScheduler.advanceTimeBy(RETRANSMIT_TIMEOUT_MS * 2, TimeUnit.MILLISECONDS);
+
+        assertEquals(1, mEnqueuedFrames.size());
+        assertEquals(0, mSender.getRetransmitCount());
+    }
+
+    @Test
+    public void reset_failsEverythingInFlightAndWaiting() {
+        mSender.send(FLING_UP, InteractionLatencyTracer.NO_TRACE);
+        mSender.send(FLING_DOWN, InteractionLatencyTracer.NO_TRACE);
+        mSender.send(FLING_LEFT, InteractionLatencyTracer.NO_TRACE);
+
+        mSender.reset();
+
+        assertEquals(0, mSender.getInFlightCount());
+        assertEquals(3, mSender.getFailedFrameCount());
+
+        // Late acks from the old link are ignored, and the waiting frame never goes out
+        mSender.onAck(0);
+        mScheduler.advanceTimeBy(RETRANSMIT_TIMEOUT_MS * 2, TimeUnit.MILLISECONDS);
+        assertEquals(2, mEnqueuedFrames.size());
+        assertEquals(0, mSender.getAckedFrameCount());
+        assertEquals(0, mSender.getRetransmitCount());
+
+        mSender.send(FLING_UP, InteractionLatencyTracer.NO_TRACE);
+        assertEquals(3, mEnqueuedFrames.size());
+        assertEquals(1, mSender.getInFlightCount());
+    }
+
+    private static String getCode(byte[] sequencedFrame) {
+        return new String(sequencedFrame, 1, 4);
+    }
+
+    private static int getSequenceNumber(byte[] sequencedFrame) {
+        return sequencedFrame[sequencedFrame.length - 2] & 0xFF;
+    }
+}
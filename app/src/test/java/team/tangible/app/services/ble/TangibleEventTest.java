@@ -0,0 +1,38 @@
+package team.tangible.app.services.ble;
+
+import org.junit.Test;
+
+import team.tangible.app.services.SocialTouchInteractionService.Actuator;
+
+import static org.junit.Assert.*;
+
+public class TangibleEventTest {
+
+    @Test
+    public void parse_readsHexPayloads() {
+        assertEquals(0xA5, ((TangibleEvent.Ack) TangibleEvent.parse("AKA5")).getSequenceNumber());
+        assertEquals(100, ((TangibleEvent.BatteryLevel) TangibleEvent.parse("BT64")).getPercent());
+        assertEquals(0x1F, ((TangibleEvent.DeviceError) TangibleEvent.parse("ER1F")).getErrorCode());
+        assertEquals(2, ((TangibleEvent.ProtocolVersion) TangibleEvent.parse("VR02")).getVersion());
+    }
+
+    @Test
+    public void parse_readsActuatorStates() {
+        TangibleEvent.ActuatorState active = (TangibleEvent.ActuatorState) TangibleEvent.parse("SFL1");
+        assertEquals(Actuator.FRONT_LEFT, active.getActuator());
+        assertTrue(active.isActive());
+
+        TangibleEvent.ActuatorState idle = (TangibleEvent.ActuatorState) TangibleEvent.parse("STR0");
+        assertEquals(Actuator.TOP_RIGHT, idle.getActuator());
+        assertFalse(idle.isActive());
+    }
+
+    @Test
+    public void parse_passesOnWhatItDoesNotUnderstand() {
+        assertTrue(TangibleEvent.parse("AKzz") instanceof TangibleEvent.Unrecognized);
+        assertTrue(TangibleEvent.parse("SXX1") instanceof TangibleEvent.Unrecognized);
+        assertTrue(TangibleEvent.parse("SBR2") instanceof TangibleEvent.Unrecognized);
+        assertTrue(TangibleEvent.parse("QQQQ") instanceof TangibleEvent.Unrecognized);
+        assertEquals("QQQQ", TangibleEvent.parse("QQQQ").getCode());
+    }
+}
@@ -0,0 +1,132 @@
+package team.tangible.app.services.ble;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import team.tangible.app.services.EmojiService;
+import team.tangible.app.services.SocialTouchInteractionService;
+
+import static org.junit.Assert.*;
+
+public class TangibleFrameCodecTest {
+
+    @Test
+    public void encode_matchesBluefruitFormat() {
+        byte[] frame = TangibleFrameCodec.encode("DTBR");
+
+        byte[] expected = new byte[TangibleFrameCodec.FRAME_LENGTH];
+        System.arraycopy("!DTBR".getBytes(StandardCharsets.US_ASCII), 0, expected, 0, 5);
+        byte sum = 0;
+        for (int i = 0; i < 5; i++) {
+            sum += expected[i];
+        }
+        expected[5] = (byte) ~sum;
+
+        assertArrayEquals(expected, frame);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void encode_rejectsCodesOfTheWrongLength() {
+        TangibleFrameCodec.encode("UNKNOWN");
+    }
+
+    @Test
+    public void decode_roundTrips() {
+        assertEquals("LPFL", TangibleFrameCodec.decode(TangibleFrameCodec.encode("LPFL"), 0, TangibleFrameCodec.FRAME_LENGTH));
+    }
+
+    @Test
+    public void decode_findsFrameAtOffset() {
+        byte[] buffer = new byte[16];
+        System.arraycopy(TangibleFrameCodec.encode("FLUP"), 0, buffer, 7, TangibleFrameCodec.FRAME_LENGTH);
+
+        assertEquals("FLUP", TangibleFrameCodec.decode(buffer, 7, buffer.length - 7));
+        assertNull(TangibleFrameCodec.decode(buffer, 0, buffer.length));
+    }
+
+    @Test
+    public void decode_rejectsCorruptFrames() {
+        byte[] badChecksum = TangibleFrameCodec.encode("FLUP");
+        badChecksum[TangibleFrameCodec.FRAME_LENGTH - 1]++;
+        assertNull(TangibleFrameCodec.decode(badChecksum, 0, badChecksum.length));
+
+        byte[] badStart = TangibleFrameCodec.encode("FLUP");
+        badStart[0] = '?';
+        assertNull(TangibleFrameCodec.decode(badStart, 0, badStart.length));
+
+        byte[] truncated = TangibleFrameCodec.encode("FLUP");
+        assertNull(TangibleFrameCodec.decode(truncated, 0, truncated.length - 1));
+        assertNull(TangibleFrameCodec.decode(truncated, 1, truncated.length));
+    }
+
+    @Test
+    public void encodeV2_carriesIntensityAndDurationAfterTheCode() {
+        byte[] frame = TangibleFrameCodec.encodeV2(TangibleFrameCodec.encode("FLUP"), 0xC0, 25);
+
+        assertEquals(TangibleFrameCodec.FRAME_LENGTH_V2, frame.length);
+        assertEquals(TangibleFrameCodec.FRAME_START_V2, frame[0]);
+        assertEquals("FLUP", new String(frame, 1, TangibleFrameCodec.CODE_LENGTH, StandardCharsets.US_ASCII));
+        assertEquals(0xC0, frame[5] & 0xFF);
+        assertEquals(25, frame[6]);
+        assertEquals(TangibleFrameCodec.checksum(frame, 0, frame.length - 1), frame[frame.length - 1]);
+
+        // Never mistaken for a v1 frame
+        assertNull(TangibleFrameCodec.decode(frame, 0, frame.length));
+    }
+
+    @Test
+    public void parameters_areQuantizedAndClamped() {
+        assertEquals(0, TangibleFrameCodec.toIntensity(-1f));
+        assertEquals(128, TangibleFrameCodec.toIntensity(0.5f));
+        assertEquals(TangibleFrameCodec.FULL_INTENSITY, TangibleFrameCodec.toIntensity(3f));
+
+        assertEquals(1, TangibleFrameCodec.toDuration(0));
+        assertEquals(30, TangibleFrameCodec.toDuration(304));
+        assertEquals(0xFF, TangibleFrameCodec.toDuration(60_000));
+    }
+
+    @Test
+    public void protocolVersionEvents_areParsed() {
+        TangibleEvent event = TangibleEvent.parse("VR02");
+
+        assertTrue(event instanceof TangibleEvent.ProtocolVersion);
+        assertEquals(2, ((TangibleEvent.ProtocolVersion) event).getVersion());
+    }
+
+    @Test
+    public void frameTables_holdOneFramePerSendableInteraction() {
+        for (SocialTouchInteractionService.Interaction interaction : SocialTouchInteractionService.Interaction.values()) {
+            assertFrameTableEntry(interaction, SocialTouchInteractionService.Interaction.getFrameTable());
+        }
+
+        for (EmojiService.Interaction interaction : EmojiService.Interaction.values()) {
+            assertFrameTableEntry(interaction, EmojiService.Interaction.getFrameTable());
+        }
+    }
+
+    @Test
+    public void frameTables_returnTheSameArrayEveryTime() {
+        assertSame(SocialTouchInteractionService.Interaction.FLING_UP.getFrame(),
+                SocialTouchInteractionService.Interaction.FLING_UP.getFrame());
+    }
+
+    @Test
+    public void frameTable_doesNotDecodeOtherTablesCodes() {
+        byte[] emojiFrame = EmojiService.Interaction.HEART.getFrame();
+
+        assertNull(SocialTouchInteractionService.Interaction.getFrameTable().decode(emojiFrame, 0, emojiFrame.length));
+    }
+
+    private static <E extends Enum<E> & TangibleInteraction> void assertFrameTableEntry(E interaction, InteractionFrameTable<E> frameTable) {
+        byte[] frame = interaction.getFrame();
+
+        if (interaction.name().equals("UNKNOWN")) {
+            assertNull(frame);
+            return;
+        }
+
+        assertArrayEquals(TangibleFrameCodec.encode(interaction.getBleCode()), frame);
+        assertSame(interaction, frameTable.decode(frame, 0, frame.length));
+    }
+}
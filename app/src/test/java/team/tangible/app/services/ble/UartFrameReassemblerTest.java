@@ -0,0 +1,113 @@
+package team.tangible.app.services.ble;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class UartFrameReassemblerTest {
+    private final List<String> mCodes = new ArrayList<>();
+    private final UartFrameReassembler mReassembler = new UartFrameReassembler(
+            (buffer, offset) -> mCodes.add(TangibleFrameCodec.decode(buffer, offset, TangibleFrameCodec.FRAME_LENGTH)));
+
+    @Test
+    public void frameSplitAcrossNotifications_isReassembled() {
+        byte[] frame = TangibleFrameCodec.encode("AK01");
+
+        mReassembler.append(Arrays.copyOfRange(frame, 0, 2));
+        assertTrue(mCodes.isEmpty());
+        mReassembler.append(Arrays.copyOfRange(frame, 2, 5));
+        assertTrue(mCodes.isEmpty());
+        mReassembler.append(Arrays.copyOfRange(frame, 5, frame.length));
+
+        assertEquals(Arrays.asList("AK01"), mCodes);
+        assertEquals(0, mReassembler.getDiscardedByteCount());
+    }
+
+    @Test
+    public void severalFramesInOneNotification_areAllDelivered() {
+        mReassembler.append(concat(TangibleFrameCodec.encode("AK01"), TangibleFrameCodec.encode("BT64"),
+                TangibleFrameCodec.encode("SBR1")));
+
+        assertEquals(Arrays.asList("AK01", "BT64", "SBR1"), mCodes);
+        assertEquals(3, mReassembler.getFrameCount());
+    }
+
+    @Test
+    public void noiseAndCorruptFrames_areSkippedToTheNextStart() {
+        byte[] corrupt = TangibleFrameCodec.encode("ER01");
+        corrupt[corrupt.length - 1]++;
+
+        mReassembler.append(concat(new byte[]{'x', 'y'}, corrupt, TangibleFrameCodec.encode("ER02")));
+
+        assertEquals(Arrays.asList("ER02"), mCodes);
+        assertEquals(2 + corrupt.length, mReassembler.getDiscardedByteCount());
+    }
+
+    @Test
+    public void startByteInsideACorruptFrame_resynchronizes() {
+        // A frame whose start was lost, followed by a good one: "DTBR" + checksum, then "!AK05"...
+        byte[] truncated = Arrays.copyOfRange(TangibleFrameCodec.encode("DTBR"), 1, TangibleFrameCodec.FRAME_LENGTH);
+        byte[] frame = TangibleFrameCodec.encode("AK05");
+
+        mReassembler.append(truncated);
+        mReassembler.append(Arrays.copyOfRange(frame, 0, 3));
+        mReassembler.append(Arrays.copyOfRange(frame, 3, frame.length));
+
+        assertEquals(Arrays.asList("AK05"), mCodes);
+    }
+
+    @Test
+    public void reset_dropsPartialFrame() {
+        byte[] frame = TangibleFrameCodec.encode("AK01");
+
+        mReassembler.append(Arrays.copyOfRange(frame, 0, 3));
+        mReassembler.reset();
+        mReassembler.append(Arrays.copyOfRange(frame, 3, frame.length));
+        mReassembler.append(TangibleFrameCodec.encode("AK02"));
+
+        assertEquals(Arrays.asList("AK02"), mCodes);
+    }
+
+    @Test
+    public void notificationLargerThanTheBuffer_isConsumedInChunks() {
+        UartFrameReassembler reassembler = new UartFrameReassembler(TangibleFrameCodec.FRAME_LENGTH + 2,
+                (buffer, offset) -> mCodes.add(TangibleFrameCodec.decode(buffer, offset, TangibleFrameCodec.FRAME_LENGTH)));
+
+        reassembler.append(concat(TangibleFrameCodec.encode("AK01"), TangibleFrameCodec.encode("AK02"),
+                TangibleFrameCodec.encode("AK03"), TangibleFrameCodec.encode("AK04")));
+
+        assertEquals(Arrays.asList("AK01", "AK02", "AK03", "AK04"), mCodes);
+    }
+
+    @Test
+    public void fullBuffer_isDiscarded() {
+        // Too small to ever hold a frame, so every byte fills it up and is thrown away
+        UartFrameReassembler reassembler = new UartFrameReassembler(TangibleFrameCodec.FRAME_LENGTH - 1,
+                (buffer, offset) -> mCodes.add(TangibleFrameCodec.decode(buffer, offset, TangibleFrameCodec.FRAME_LENGTH)));
+
+        byte[] frame = TangibleFrameCodec.encode("AK01");
+        reassembler.append(frame);
+
+        assertTrue(mCodes.isEmpty());
+        assertEquals(frame.length, reassembler.getDiscardedByteCount());
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+
+        byte[] data = new byte[length];
+        int offset = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, data, offset, part.length);
+            offset += part.length;
+        }
+        return data;
+    }
+}
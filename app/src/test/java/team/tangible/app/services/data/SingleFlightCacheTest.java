@@ -0,0 +1,101 @@
+package team.tangible.app.services.data;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.Single;
+import io.reactivex.observers.TestObserver;
+import io.reactivex.subjects.SingleSubject;
+
+import static org.junit.Assert.*;
+
+public class SingleFlightCacheTest {
+
+    @Test
+    public void concurrentGets_shareOneLoad() {
+        SingleFlightCache<String> cache = new SingleFlightCache<>(4);
+        SingleSubject<String> load = SingleSubject.create();
+        AtomicInteger loadCount = new AtomicInteger();
+
+        TestObserver<String> first = cache.get("rooms/a", () -> {
+            loadCount.incrementAndGet();
+            return load;
+        }).test();
+        TestObserver<String> second = cache.get("rooms/a", () -> {
+            loadCount.incrementAndGet();
+            return load;
+        }).test();
+
+        first.assertNoValues();
+        load.onSuccess("jitsi-a");
+
+        first.assertResult("jitsi-a");
+        second.assertResult("jitsi-a");
+        assertEquals(1, loadCount.get());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getCoalescedCount());
+    }
+
+    @Test
+    public void loadedValues_areMemoized() {
+        SingleFlightCache<String> cache = new SingleFlightCache<>(4);
+
+        cache.get("rooms/a", () -> Single.just("jitsi-a")).test().assertResult("jitsi-a");
+        cache.get("rooms/a", () -> Single.just("other")).test().assertResult("jitsi-a");
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void leastRecentlyUsed_isEvicted() {
+        SingleFlightCache<String> cache = new SingleFlightCache<>(2);
+
+        cache.get("a", () -> Single.just("1")).test();
+        cache.get("b", () -> Single.just("2")).test();
+        cache.get("a", () -> Single.just("x")).test().assertResult("1");
+        cache.get("c", () -> Single.just("3")).test();
+
+        cache.get("a", () -> Single.just("x")).test().assertResult("1");
+        cache.get("b", () -> Single.just("reloaded")).test().assertResult("reloaded");
+    }
+
+    @Test
+    public void invalidate_forcesReload() {
+        SingleFlightCache<String> cache = new SingleFlightCache<>(4);
+
+        cache.get("rooms/a", () -> Single.just("old")).test();
+        cache.invalidate("rooms/a");
+
+        cache.get("rooms/a", () -> Single.just("new")).test().assertResult("new");
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void invalidateDuringLoad_doesNotMemoizeStaleValue() {
+        SingleFlightCache<String> cache = new SingleFlightCache<>(4);
+        SingleSubject<String> staleLoad = SingleSubject.create();
+
+        TestObserver<String> waiting = cache.get("rooms/a", () -> staleLoad).test();
+        cache.invalidate("rooms/a");
+        staleLoad.onSuccess("stale");
+
+        waiting.assertResult("stale");
+        cache.get("rooms/a", () -> Single.just("fresh")).test().assertResult("fresh");
+    }
+
+    @Test
+    public void failedLoad_isNotMemoized() {
+        SingleFlightCache<String> cache = new SingleFlightCache<>(4);
+
+        cache.get("rooms/a", () -> Single.error(new IllegalStateException())).test()
+                .assertError(IllegalStateException.class);
+        cache.get("rooms/a", () -> {
+            throw new IllegalStateException();
+        }).test().assertError(IllegalStateException.class);
+
+        cache.get("rooms/a", () -> Single.just("jitsi-a")).test().assertResult("jitsi-a");
+        assertEquals(3, cache.getMissCount());
+    }
+}
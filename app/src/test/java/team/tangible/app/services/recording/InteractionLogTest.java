@@ -0,0 +1,143 @@
+package team.tangible.app.services.recording;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import team.tangible.app.services.EmojiService;
+import team.tangible.app.services.SocialTouchInteractionService.Interaction;
+import team.tangible.app.services.ble.TangibleFrameCodec;
+
+import static org.junit.Assert.*;
+
+public class InteractionLogTest {
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void interactions_roundTripWithTiming() throws IOException {
+        File file = mTemporaryFolder.newFile();
+
+        try (InteractionLog.Writer writer = new InteractionLog.Writer(file)) {
+            writer.writeSessionStart(1000, 1_600_000_000_000L);
+            writer.writeTouch(Interaction.LONG_FRONT_LEFT, 200, 35, 1010);
+            writer.writeEmoji(EmojiService.Interaction.STAR, 1010);
+            writer.writeTouch(Interaction.FLING_UP, 255, 255, 1010 + 300_000);
+        }
+
+        try (InteractionLog.Reader reader = new InteractionLog.Reader(file)) {
+            assertTrue(reader.next());
+            assertTrue(reader.isTouch());
+            assertEquals(Interaction.LONG_FRONT_LEFT, reader.getInteraction());
+            assertEquals(200, reader.getIntensity());
+            assertEquals(35, reader.getDuration());
+            assertEquals(10, reader.getDelayMs());
+
+            assertTrue(reader.next());
+            assertFalse(reader.isTouch());
+            assertEquals(EmojiService.Interaction.STAR, reader.getInteraction());
+            assertEquals(0, reader.getDelayMs());
+
+            assertTrue(reader.next());
+            assertEquals(Interaction.FLING_UP, reader.getInteraction());
+            assertEquals(255, reader.getIntensity());
+            assertEquals(300_000, reader.getDelayMs());
+
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void frames_roundTripBetweenInteractions() throws IOException {
+        File file = mTemporaryFolder.newFile();
+        byte[] strokeFrame = TangibleFrameCodec.encodeV2(TangibleFrameCodec.encode("STzl"), 128, 10);
+        byte[] pressFrame = TangibleFrameCodec.encode("PR0S");
+
+        try (InteractionLog.Writer writer = new InteractionLog.Writer(file)) {
+            writer.writeSessionStart(0, 0);
+            writer.writeFrame(strokeFrame, 20);
+            writer.writeTouch(Interaction.LONG_FRONT_LEFT, 200, 35, 30);
+            writer.writeFrame(pressFrame, 45);
+        }
+
+        try (InteractionLog.Reader reader = new InteractionLog.Reader(file)) {
+            assertTrue(reader.next());
+            assertTrue(reader.isFrame());
+            assertFalse(reader.isTouch());
+            assertNull(reader.getInteraction());
+            assertArrayEquals(strokeFrame, reader.getFrame());
+            assertEquals(20, reader.getDelayMs());
+
+            assertTrue(reader.next());
+            assertFalse(reader.isFrame());
+            assertEquals(Interaction.LONG_FRONT_LEFT, reader.getInteraction());
+
+            assertTrue(reader.next());
+            assertArrayEquals(pressFrame, reader.getFrame());
+            assertEquals(15, reader.getDelayMs());
+
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void sessions_appendAndPlayBackToBack() throws IOException {
+        File file = mTemporaryFolder.newFile();
+
+        try (InteractionLog.Writer writer = new InteractionLog.Writer(file)) {
+            writer.writeSessionStart(0, 0);
+            writer.writeTouch(Interaction.DOUBLE_TOP_LEFT, 100, 20, 50);
+        }
+        try (InteractionLog.Writer writer = new InteractionLog.Writer(file)) {
+            writer.writeSessionStart(5_000_000, 1);
+            writer.writeTouch(Interaction.DOUBLE_TOP_RIGHT, 100, 20, 5_000_070);
+        }
+
+        try (InteractionLog.Reader reader = new InteractionLog.Reader(file)) {
+            assertTrue(reader.next());
+            assertEquals(Interaction.DOUBLE_TOP_LEFT, reader.getInteraction());
+            assertEquals(50, reader.getDelayMs());
+
+            assertTrue(reader.next());
+            assertEquals(Interaction.DOUBLE_TOP_RIGHT, reader.getInteraction());
+            assertEquals(70, reader.getDelayMs());
+
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void truncatedRecord_endsLog() throws IOException {
+        File file = mTemporaryFolder.newFile();
+
+        try (InteractionLog.Writer writer = new InteractionLog.Writer(file)) {
+            writer.writeSessionStart(0, 0);
+            writer.writeTouch(Interaction.FLING_LEFT, 10, 1, 5);
+            writer.writeTouch(Interaction.FLING_RIGHT, 10, 1, 10);
+        }
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.setLength(randomAccessFile.length() - 2);
+        }
+
+        try (InteractionLog.Reader reader = new InteractionLog.Reader(file)) {
+            assertTrue(reader.next());
+            assertEquals(Interaction.FLING_LEFT, reader.getInteraction());
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test(expected = InteractionLog.InvalidLogException.class)
+    public void otherFile_isRejected() throws IOException {
+        File file = mTemporaryFolder.newFile();
+        try (FileOutputStream outputStream = new FileOutputStream(file)) {
+            outputStream.write("not a log".getBytes());
+        }
+
+        new InteractionLog.Reader(file).close();
+    }
+}
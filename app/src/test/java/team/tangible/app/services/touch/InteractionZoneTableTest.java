@@ -0,0 +1,115 @@
+package team.tangible.app.services.touch;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import team.tangible.app.services.SocialTouchInteractionService;
+import team.tangible.app.services.SocialTouchInteractionService.Interaction;
+import team.tangible.app.services.touch.InteractionZoneTable.GestureType;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the zone table against {@link SocialTouchInteractionService#getActuator(float, float, float, float)}
+ * and checks that the per-touch path does not allocate.
+ */
+public class InteractionZoneTableTest {
+    private static final float WIDTH = 1080;
+    private static final float HEIGHT = 1680;
+
+    private static final int WARM_UP_ITERATIONS = 200_000;
+    private static final int ITERATIONS = 1_000_000;
+
+    /**
+     * Slack for whatever the measurement itself allocates, far below one byte per iteration
+     */
+    private static final long ALLOCATION_SLACK_BYTES = 4096;
+
+    @Test
+    public void zones_matchGetActuator() {
+        InteractionZoneTable table = new InteractionZoneTable(WIDTH, HEIGHT);
+
+        for (float x = -10; x <= WIDTH + 10; x += 0.5f) {
+            for (float y = -10; y <= HEIGHT + 10; y += 7f) {
+                assertZoneMatches(table, x, y);
+            }
+        }
+
+        // Exactly on the boundaries
+        float[] xs = {0, WIDTH / 2, WIDTH};
+        float[] ys = {0, HEIGHT / 3, 2 * HEIGHT / 3, HEIGHT};
+        for (float x : xs) {
+            for (float y : ys) {
+                assertZoneMatches(table, x, y);
+            }
+        }
+    }
+
+    @Test
+    public void zones_followResize() {
+        InteractionZoneTable table = new InteractionZoneTable(WIDTH, HEIGHT);
+
+        assertFalse(table.setSize(WIDTH, HEIGHT));
+        assertTrue(table.setSize(WIDTH, HEIGHT - 600));
+
+        assertEquals(SocialTouchInteractionService.Actuator.FRONT_LEFT, table.getActuator(table.getZone(10, HEIGHT - 650)));
+        assertZoneMatches(table, WIDTH / 4, (HEIGHT - 600) / 2, WIDTH, HEIGHT - 600);
+    }
+
+    @Test
+    public void interactions_matchGestureAndZone() {
+        InteractionZoneTable table = new InteractionZoneTable(WIDTH, HEIGHT);
+
+        assertEquals(Interaction.DOUBLE_BACK_LEFT, table.getInteraction(GestureType.DOUBLE_TAP, table.getZone(10, 10)));
+        assertEquals(Interaction.DOUBLE_TOP_RIGHT, table.getInteraction(GestureType.DOUBLE_TAP, table.getZone(WIDTH - 10, HEIGHT / 2)));
+        assertEquals(Interaction.LONG_FRONT_LEFT, table.getInteraction(GestureType.LONG_PRESS, table.getZone(10, HEIGHT - 10)));
+        assertEquals(Interaction.LONG_BACK_RIGHT, table.getInteraction(GestureType.LONG_PRESS, table.getZone(WIDTH - 10, 10)));
+    }
+
+    @Test
+    public void touchPath_doesNotAllocate() {
+        java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadMXBean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocationMXBean = (com.sun.management.ThreadMXBean) threadMXBean;
+        Assume.assumeTrue(allocationMXBean.isThreadAllocatedMemorySupported());
+        allocationMXBean.setThreadAllocatedMemoryEnabled(true);
+
+        InteractionZoneTable table = new InteractionZoneTable(WIDTH, HEIGHT);
+        long threadId = Thread.currentThread().getId();
+
+        long checksum = runTouchPath(table, WARM_UP_ITERATIONS);
+
+        long allocatedBytesBefore = allocationMXBean.getThreadAllocatedBytes(threadId);
+        checksum += runTouchPath(table, ITERATIONS);
+        long allocatedBytes = allocationMXBean.getThreadAllocatedBytes(threadId) - allocatedBytesBefore;
+
+        assertTrue("Touch path allocated " + allocatedBytes + " bytes", allocatedBytes < ALLOCATION_SLACK_BYTES);
+        assertNotEquals(0, checksum);
+    }
+
+    private static long runTouchPath(InteractionZoneTable table, int iterations) {
+        long checksum = 0;
+        for (int i = 0; i < iterations; i++) {
+            float x = (i * 37) % WIDTH;
+            float y = (i * 91) % HEIGHT;
+            GestureType gestureType = (i & 1) == 0 ? GestureType.DOUBLE_TAP : GestureType.LONG_PRESS;
+
+            Interaction interaction = table.getInteraction(gestureType, table.getZone(x, y));
+            byte[] frame = interaction.getFrame();
+            checksum += frame[frame.length - 1];
+        }
+        return checksum;
+    }
+
+    private static void assertZoneMatches(InteractionZoneTable table, float x, float y) {
+        assertZoneMatches(table, x, y, WIDTH, HEIGHT);
+    }
+
+    private static void assertZoneMatches(InteractionZoneTable table, float x, float y, float width, float height) {
+        assertEquals("(" + x + ", " + y + ")",
+                SocialTouchInteractionService.getActuator(x, y, width, height),
+                table.getActuator(table.getZone(x, y)));
+    }
+}
@@ -0,0 +1,93 @@
+package team.tangible.app.utils;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+    private final LatencyHistogram mHistogram = new LatencyHistogram();
+
+    @Test
+    public void empty_reportsZero() {
+        assertEquals(0, mHistogram.getCount());
+        assertEquals(0, mHistogram.getPercentileMs(0), 0);
+        assertEquals(0, mHistogram.getPercentileMs(99), 0);
+        assertEquals("n=0 p50=0.0ms p95=0.0ms p99=0.0ms", mHistogram.getSummary());
+    }
+
+    @Test
+    public void oneSample_isEveryPercentile() {
+        mHistogram.recordNanos(TimeUnit.MILLISECONDS.toNanos(20));
+
+        for (double percentile : new double[]{0, 50, 99, 100}) {
+            double latencyMs = mHistogram.getPercentileMs(percentile);
+            assertTrue(latencyMs > 20);
+            assertTrue(latencyMs <= 20 * 1.125);
+        }
+    }
+
+    @Test
+    public void smallValues_areExact() {
+        mHistogram.recordNanos(-5);
+        mHistogram.recordNanos(3_000);
+
+        // Below eight microseconds each microsecond is its own bucket
+        assertEquals(0.001, mHistogram.getPercentileMs(50), 1e-9);
+        assertEquals(0.004, mHistogram.getPercentileMs(100), 1e-9);
+    }
+
+    @Test
+    public void percentiles_pickTheRankedSample() {
+        for (int i = 1; i <= 100; i++) {
+            mHistogram.recordNanos(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+
+        assertEquals(100, mHistogram.getCount());
+        assertEquals(50, mHistogram.getPercentileMs(50), 50 * 0.125);
+        assertEquals(95, mHistogram.getPercentileMs(95), 95 * 0.125);
+        assertTrue(mHistogram.getPercentileMs(100) >= 100);
+    }
+
+    @Test
+    public void largestValue_landsInTheTopBucket() {
+        mHistogram.recordNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        mHistogram.recordNanos(Long.MAX_VALUE);
+
+        double maxMs = Long.MAX_VALUE / 1e6;
+        assertTrue(mHistogram.getPercentileMs(100) >= maxMs);
+        assertTrue(mHistogram.getPercentileMs(100) <= maxMs * 1.125);
+        assertTrue(mHistogram.getPercentileMs(50) < 2);
+    }
+
+    @Test
+    public void setToInterval_countsOnlyWhatWasRecordedSinceTheLastInterval() {
+        LatencyHistogram baseline = new LatencyHistogram();
+        LatencyHistogram interval = new LatencyHistogram();
+
+        mHistogram.recordNanos(TimeUnit.MILLISECONDS.toNanos(100));
+        interval.setToInterval(mHistogram, baseline);
+        assertEquals(1, interval.getCount());
+
+        mHistogram.recordNanos(TimeUnit.MILLISECONDS.toNanos(5));
+        mHistogram.recordNanos(TimeUnit.MILLISECONDS.toNanos(5));
+        interval.setToInterval(mHistogram, baseline);
+
+        assertEquals(2, interval.getCount());
+        assertTrue(interval.getPercentileMs(100) < 6);
+        assertEquals(3, mHistogram.getCount());
+
+        interval.setToInterval(mHistogram, baseline);
+        assertEquals(0, interval.getCount());
+    }
+
+    @Test
+    public void reset_clearsEverything() {
+        mHistogram.recordNanos(TimeUnit.MILLISECONDS.toNanos(5));
+        mHistogram.reset();
+
+        assertEquals(0, mHistogram.getCount());
+        assertEquals(0, mHistogram.getPercentileMs(50), 0);
+    }
+}